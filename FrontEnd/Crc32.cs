@@ -0,0 +1,45 @@
+﻿namespace FrontEnd
+{
+    /// <summary>
+    /// Works out the CRC32 of a song as it arrives so that it can be checked against the checksum the server sent.
+    /// </summary>
+    public class Crc32
+    {
+        private static readonly uint[] Table = CreateTable();
+        private uint _crc = 0xFFFFFFFF;
+
+        public uint Value
+        {
+            get { return _crc ^ 0xFFFFFFFF; }
+        }
+
+        /// <summary>
+        /// Adds some more bytes to the checksum.
+        /// </summary>
+        /// <param name="bytes">The buffer holding the bytes.</param>
+        /// <param name="amount">The number of bytes from the start of the buffer to add.</param>
+        public void Update(byte[] bytes, int amount)
+        {
+            for (int i = 0; i < amount; i++)
+            {
+                _crc = Table[(_crc ^ bytes[i]) & 0xFF] ^ (_crc >> 8);
+            }
+        }
+
+        private static uint[] CreateTable()
+        {
+            uint[] table = new uint[256];
+            for (uint i = 0; i < 256; i++)
+            {
+                uint entry = i;
+                for (int bit = 0; bit < 8; bit++)
+                {
+                    entry = (entry & 1) != 0 ? 0xEDB88320 ^ (entry >> 1) : entry >> 1;
+                }
+                table[i] = entry;
+            }
+
+            return table;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+﻿using System;
+using System.Net.Sockets;
+using System.Text;
+
+namespace FrontEnd
+{
+    /// <summary>
+    /// Reads and writes the frames that messages are sent in so that every message is received whole.
+    ///
+    /// Each frame is a 4 byte big endian payload length, a 1 byte message type and then the payload itself.
+    /// </summary>
+    public static class MessageConverter
+    {
+        private const int HeaderSize = 5;
+        private const int MaxFrameSize = 1024 * 1024;
+
+        /// <summary>
+        /// Sends a text message to the server as a single frame.
+        /// </summary>
+        /// <param name="socket">The socket to send the message on.</param>
+        /// <param name="message">The message to be sent.</param>
+        public static void WriteMessage(Socket socket, string message)
+        {
+            byte[] payload = Encoding.UTF8.GetBytes(message);
+            byte[] frame = new byte[HeaderSize + payload.Length];
+            frame[0] = (byte) (payload.Length >> 24);
+            frame[1] = (byte) (payload.Length >> 16);
+            frame[2] = (byte) (payload.Length >> 8);
+            frame[3] = (byte) payload.Length;
+            frame[4] = (byte) MessageType.Text;
+            Buffer.BlockCopy(payload, 0, frame, HeaderSize, payload.Length);
+            socket.Send(frame, frame.Length, SocketFlags.None);
+        }
+
+        /// <summary>
+        /// Reads a single whole frame from the server.
+        /// </summary>
+        /// <param name="socket">The socket to read the frame from.</param>
+        /// <param name="type">The type of the frame that was read.</param>
+        /// <returns>The payload of the frame.</returns>
+        public static byte[] ReadFrame(Socket socket, out MessageType type)
+        {
+            byte[] header = ReceiveExactly(socket, HeaderSize);
+            int length = (header[0] << 24) | (header[1] << 16) | (header[2] << 8) | header[3];
+            if (length < 0 || length > MaxFrameSize)
+            {
+                throw new SocketException((int) SocketError.MessageSize);
+            }
+
+            type = (MessageType) header[4];
+            return ReceiveExactly(socket, length);
+        }
+
+        /// <summary>
+        /// Reads a single text message from the server.
+        /// </summary>
+        /// <param name="socket">The socket to read the message from.</param>
+        /// <returns>The message that was read.</returns>
+        public static string ReadMessage(Socket socket)
+        {
+            MessageType type;
+            byte[] payload = ReadFrame(socket, out type);
+            return Encoding.UTF8.GetString(payload);
+        }
+
+        /// <summary>
+        /// Receives the next part of a run of raw bytes, such as the body of a song.
+        /// </summary>
+        /// <param name="socket">The socket to read from.</param>
+        /// <param name="buffer">The buffer to read into.</param>
+        /// <param name="count">The most bytes to read.</param>
+        /// <returns>The number of bytes which were read.</returns>
+        public static int ReceiveChunk(Socket socket, byte[] buffer, int count)
+        {
+            int bytesReceived = socket.Receive(buffer, 0, count, SocketFlags.None);
+            if (bytesReceived == 0)
+            {
+                //the server closed the connection part way through.
+                throw new SocketException((int) SocketError.ConnectionReset);
+            }
+
+            return bytesReceived;
+        }
+
+        /// <summary>
+        /// Keeps receiving until the requested number of bytes have arrived, as a single receive may return less.
+        /// </summary>
+        /// <param name="socket">The socket to read from.</param>
+        /// <param name="count">The number of bytes to read.</param>
+        /// <returns>The bytes that were read.</returns>
+        private static byte[] ReceiveExactly(Socket socket, int count)
+        {
+            byte[] buffer = new byte[count];
+            int received = 0;
+            while (received < count)
+            {
+                int bytesReceived = socket.Receive(buffer, received, count - received, SocketFlags.None);
+                if (bytesReceived == 0)
+                {
+                    //the server closed the connection part way through a frame.
+                    throw new SocketException((int) SocketError.ConnectionReset);
+                }
+                received += bytesReceived;
+            }
+
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+﻿namespace FrontEnd
+{
+    /// <summary>
+    /// The type of a frame sent between the client and the servers.
+    /// </summary>
+    public enum MessageType : byte
+    {
+        Text = 1,
+        // 2 was used for frames of raw bytes and is kept free.
+        End = 3
+    }
+}
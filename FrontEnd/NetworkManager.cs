@@ -1,7 +1,6 @@
 ﻿using System;
 using System.Net;
 using System.Net.Sockets;
-using System.Text;
 using System.Text.RegularExpressions;
 using System.Threading;
 
@@ -174,9 +173,7 @@ namespace FrontEnd
 
         private void DoComServerStart()
         {
-            byte[] buffer = new byte[100];
-            int bytesToSend = Encoding.UTF8.GetBytes("CLIENT", 0, 6, buffer, 0);
-            _socket.Send(buffer, bytesToSend, SocketFlags.None);
+            MessageConverter.WriteMessage(_socket, "CLIENT");
         }
 
         /// <summary>
@@ -1,12 +1,13 @@
 ﻿using System;
 using System.Net;
 using System.Net.Sockets;
-using System.Text;
 
 namespace FrontEnd
 {
     public class NetworkReader
     {
+        private const int SongBufferSize = 64 * 1024;
+        public const int SongPageSize = 500;
         private NetworkManager _parent;
         private Socket _socket;
         private ServerType _serverType;
@@ -25,9 +26,6 @@ namespace FrontEnd
 
         public void Run()
         {
-            int bytesReceived;
-            byte[] buffer = new byte[2048];
-            
             //while we are still connected.
             while (_connectionState == NetworkConnectionState.Connected) 
             {
@@ -35,8 +33,7 @@ namespace FrontEnd
                 {
                     try
                     {
-                        bytesReceived = _socket.Receive(buffer);
-                        string toProcess = Encoding.UTF8.GetString(buffer, 0, bytesReceived);
+                        string toProcess = MessageConverter.ReadMessage(_socket);
                         switch (_serverType)
                         {
                             case ServerType.Communication:
@@ -162,29 +159,51 @@ namespace FrontEnd
                 case "RECOMMENDATION":
                     _sharedDataSource.AddUserQueue(message);
                     break;
+                case "PAGE":
+                    //a page of the song list - PAGE:[offset]:[count]:[total]:[version] then one title per line.
+                    string[] lines = message.Split('\n');
+                    string[] page = lines[0].Split(':');
+                    int offset = int.Parse(page[1]);
+                    int count = int.Parse(page[2]);
+                    int total = int.Parse(page[3]);
+                    for (int i = 1; i < lines.Length; i++)
+                    {
+                        _sharedDataSource.AddUserQueue("SONGS:" + lines[i]);
+                    }
+
+                    if (count > 0 && offset + count < total)
+                    {
+                        _sharedDataSource.AddMessage("SONGLIST:" + (offset + count) + ":" + SongPageSize);
+                    }
+                    break;
                 case "SONG":
+                    //the header tells us exactly how many bytes of song follow and the checksum they should have.
+                    int songLength = int.Parse(splitMessage[1]);
+                    uint checksum = Convert.ToUInt32(splitMessage[2], 16);
                     _sharedDataSource.IsStreaming = true;
-                    _sharedDataSource.NewSong();
+                    _sharedDataSource.NewSong(songLength);
                     try
                     {
-                        while (_sharedDataSource.IsStreaming)
+                        Crc32 crc = new Crc32();
+                        byte[] songBuffer = new byte[SongBufferSize];
+                        int remaining = songLength;
+                        while (remaining > 0)
+                        {
+                            int bytesReceived = MessageConverter.ReceiveChunk(_socket, songBuffer, Math.Min(songBuffer.Length, remaining));
+                            _sharedDataSource.AddMemoryStream(songBuffer, bytesReceived);
+                            crc.Update(songBuffer, bytesReceived);
+                            remaining -= bytesReceived;
+                        }
+
+                        _sharedDataSource.IsStreaming = false;
+                        if (crc.Value == checksum)
+                        {
+                            _sharedDataSource.OnSongReady();
+                        }
+                        else
                         {
-                            byte[] songBuffer = new byte[4096];
-                            int receive = _socket.Receive(songBuffer);
-                            string eofCheck = Encoding.UTF8.GetString(songBuffer);
-                            if (eofCheck.Contains("EOF:EOF:EOF"))
-                            {
-                                if (!eofCheck.StartsWith("EOF:EOF:EOF"))
-                                {
-                                    _sharedDataSource.AddMemoryStream(songBuffer, eofCheck.IndexOf("EOF:EOF:EOF"));
-                                }
-                                _sharedDataSource.IsStreaming = false;
-                                _sharedDataSource.OnSongReady();
-                            }
-                            else
-                            {
-                                _sharedDataSource.AddMemoryStream(songBuffer, receive);
-                            }
+                            _sharedDataSource.DiscardSong();
+                            _sharedDataSource.AddUserQueue("ERROR:Song arrived damaged");
                         }
                     }
                     catch (SocketException socketException)
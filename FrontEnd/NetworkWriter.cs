@@ -1,6 +1,5 @@
 using System;
 using System.Net.Sockets;
-using System.Text;
 
 namespace FrontEnd
 {
@@ -48,9 +47,7 @@ namespace FrontEnd
                                     _parent.NextServerType = nextServer;
                                     break;
                             }
-                            byte[] buffer = new byte[messageToSend.Length];
-                            int bytesToSend = Encoding.UTF8.GetBytes(messageToSend, 0, messageToSend.Length, buffer, 0);
-                            _socket.Send(buffer, bytesToSend, SocketFlags.None);
+                            MessageConverter.WriteMessage(_socket, messageToSend);
                         }
                     }
                     catch (SocketException socketException)
@@ -69,11 +69,11 @@ namespace FrontEnd
             return _instance ?? (_instance = new SharedDataSource());
         }
 
-        public void NewSong()
+        public void NewSong(int length)
         {
             lock (_memoryStreams)
             {
-                _memoryStreams.AddLast(new MemoryStream());
+                _memoryStreams.AddLast(new MemoryStream(length));
             }
         }
         public void AddMemoryStream(byte[] bytes, int amount)
@@ -84,6 +84,14 @@ namespace FrontEnd
             }
         }
 
+        public void DiscardSong()
+        {
+            lock (_memoryStreams)
+            {
+                _memoryStreams.RemoveLast();
+            }
+        }
+
         public MemoryStream RemoveMemoryStream()
         {
             MemoryStream toReturn;
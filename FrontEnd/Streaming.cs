@@ -179,7 +179,7 @@ namespace FrontEnd
         private void btnLoadSongs_Click(object sender, EventArgs e)
         {
             lstSongs.Items.Clear();
-            _sharedDataSource.AddMessage("SONGLIST");
+            _sharedDataSource.AddMessage("SONGLIST:0:" + NetworkReader.SongPageSize);
             _sharedDataSource.AddMessage("RECOMMENDATION");
         }
 
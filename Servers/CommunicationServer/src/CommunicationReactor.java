@@ -0,0 +1,365 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the communication server with a single selector thread serving every connection instead of a thread per
+ * connection.
+ *
+ * The selector thread accepts connections and moves bytes in and out of them without blocking. Whole messages are
+ * handed to a small pool of worker threads which do the {@link SharedDataStore} lookups, so an idle client only costs
+ * its socket and a small buffer.
+ *
+ * @author Bradley Davis
+ */
+public class CommunicationReactor {
+    private static final int SELECT_TIMEOUT = 1000;
+
+    private final int portNumber;
+    private final int workerThreads;
+    private final MessageProcessor messageProcessor;
+    private final SharedDataStore dataStore;
+    private final Queue<ReactorSession> pendingWrites;
+    private final List<ReactorSession> networkSessions;
+    private final Random random;
+    private Selector selector;
+    private ExecutorService workers;
+
+    /**
+     * Constructor to set up the reactor.
+     *
+     * @param portNumber the port for the server to listen for clients on.
+     * @param workerThreads the number of threads which will process messages.
+     */
+    public CommunicationReactor(int portNumber, int workerThreads) {
+        this.portNumber = portNumber;
+        this.workerThreads = workerThreads;
+        this.messageProcessor = new MessageProcessor();
+        this.dataStore = SharedDataStore.getInstance();
+        this.pendingWrites = new ConcurrentLinkedQueue<ReactorSession>();
+        this.networkSessions = new CopyOnWriteArrayList<ReactorSession>();
+        this.random = new Random(System.currentTimeMillis());
+    }
+
+    /**
+     * Starts the server running.
+     *
+     * Listens for connecting clients and serves them all from this thread.
+     */
+    public void Start() {
+        boolean isRunning = true;
+        workers = Executors.newFixedThreadPool(workerThreads);
+        try {
+            selector = Selector.open();
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(portNumber));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+            Thread networkDispatcher = new Thread(this::sendNetworkMessages, "CommunicationReactor-network");
+            networkDispatcher.setDaemon(true);
+            networkDispatcher.start();
+
+            System.out.println("Waiting for connections with " + workerThreads + " worker threads.");
+
+            while (isRunning) {
+                selector.select(SELECT_TIMEOUT);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept(serverChannel);
+                    }
+                    else {
+                        ReactorSession session = (ReactorSession) key.attachment();
+                        if (key.isReadable()) {
+                            read(session);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(session);
+                        }
+                    }
+                }
+
+                //workers cannot safely change what the selector is waiting for, so they leave it to us.
+                ReactorSession session;
+                while ((session = pendingWrites.poll()) != null) {
+                    if (session.getKey().isValid()) {
+                        session.getKey().interestOps(session.getKey().interestOps() | SelectionKey.OP_WRITE);
+                    }
+                }
+
+            }
+        }
+        catch (IOException ioe) {
+            System.out.println("IO exception: " + ioe.getMessage());
+        }
+        finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Accepts a waiting connection and registers it with the selector.
+     *
+     * @param serverChannel the channel which is listening for connections.
+     */
+    private void accept(ServerSocketChannel serverChannel) {
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new ReactorSession(channel, key));
+        }
+        catch (IOException e) {
+            System.out.println("Unable to accept connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads whatever has arrived on the connection and hands any whole messages to the workers.
+     *
+     * @param session the session which has data waiting.
+     */
+    private void read(ReactorSession session) {
+        try {
+            ByteBuffer buffer = session.getReadBuffer();
+            int bytesRead = session.getChannel().read(buffer);
+
+            if (bytesRead == -1) {
+                //the other end has gone away.
+                if (session.getConnectionState() != ConnectionState.DISCONNECTING) {
+                    System.out.println("Connection to " + session.getHostAddress() + " dropped.");
+                }
+                close(session);
+                return;
+            }
+
+            buffer.flip();
+            Frame frame;
+            while ((frame = MessageConverter.decodeFrame(buffer)) != null) {
+                if (frame.getType() == MessageType.TEXT) {
+                    session.getIncomingMessages().add(frame.getText());
+                }
+            }
+            buffer.compact();
+
+            //if a frame is too big to fit in the buffer we will never be able to read it, so make room.
+            if (!buffer.hasRemaining()) {
+                session.growReadBuffer();
+            }
+
+            if (!session.getIncomingMessages().isEmpty() && session.schedule()) {
+                workers.execute(() -> processMessages(session));
+            }
+        }
+        catch (IOException e) {
+            if (session.getConnectionState() != ConnectionState.DISCONNECTING) {
+                System.out.println("Error reading from " + session.getHostAddress() + ": " + e.getMessage());
+            }
+            close(session);
+        }
+    }
+
+    /**
+     * Writes as much of the waiting replies as the connection will take.
+     *
+     * @param session the session which can be written to.
+     */
+    private void write(ReactorSession session) {
+        try {
+            Queue<ByteBuffer> outgoing = session.getOutgoingFrames();
+            ByteBuffer frame;
+            while ((frame = outgoing.peek()) != null) {
+                session.getChannel().write(frame);
+                if (frame.hasRemaining()) {
+                    //the socket buffer is full, carry on when it has room.
+                    return;
+                }
+                outgoing.poll();
+            }
+
+            session.getKey().interestOps(SelectionKey.OP_READ);
+
+            if (session.getConnectionState() == ConnectionState.DISCONNECTING) {
+                System.out.println("Connection to " + session.getHostAddress() + " closing.");
+                close(session);
+            }
+        }
+        catch (IOException e) {
+            System.out.println("Error writing to " + session.getHostAddress() + ": " + e.getMessage());
+            close(session);
+        }
+    }
+
+    /**
+     * Processes every message waiting on a session. This runs on a worker thread.
+     *
+     * @param session the session to process messages for.
+     */
+    private void processMessages(ReactorSession session) {
+        while (true) {
+            String message = session.getIncomingMessages().poll();
+            if (message == null) {
+                session.unschedule();
+                //a message may have arrived after we looked but before we unscheduled.
+                if (session.getIncomingMessages().isEmpty() || !session.schedule()) {
+                    return;
+                }
+                continue;
+            }
+
+            processMessage(session, message);
+        }
+    }
+
+    /**
+     * Processes a single message and queues the reply.
+     *
+     * @param session the session the message was sent on.
+     * @param message the message to process.
+     */
+    private void processMessage(ReactorSession session, String message) {
+        if (session.getConnectionState() == ConnectionState.DISCONNECTING || session.isNetwork()) {
+            //network managers only receive messages from here on, anything else is ignored.
+            return;
+        }
+
+        if (session.getConnectionType() == null) {
+            //before we start handling messages, get the connection type
+            if (message.equals("SERVER") || message.equals("CLIENT")) {
+                session.setConnectionType(message);
+            }
+            else {
+                session.setConnectionState(ConnectionState.DISCONNECTING);
+                closeLater(session);
+            }
+            return;
+        }
+
+        String reply;
+        if (session.getConnectionType().equals("SERVER")) {
+            reply = messageProcessor.processServerMessage(message, session.getHostAddress());
+            if (messageProcessor.isNetworkRegistration(message)) {
+                session.setNetwork(true);
+                synchronized (networkSessions) {
+                    networkSessions.add(session);
+                    networkSessions.notifyAll();
+                }
+            }
+        }
+        else {
+            reply = messageProcessor.processClientMessage(message);
+        }
+
+        if (reply.equals("DISCONNECT")) {
+            session.setConnectionState(ConnectionState.DISCONNECTING);
+        }
+
+        queueMessage(session, reply);
+    }
+
+    /**
+     * Sends network messages out to the network managers as soon as they are queued. This runs on its own thread and
+     * blocks while there is nothing to send or nobody to send it to.
+     */
+    private void sendNetworkMessages() {
+        while (true) {
+            NetworkMessage message;
+            try {
+                synchronized (networkSessions) {
+                    while (networkSessions.isEmpty()) {
+                        networkSessions.wait();
+                    }
+                }
+                message = dataStore.takeNetworkMessage();
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+
+            ReactorSession session = pickNetworkSession();
+            if (session == null) {
+                //the last network manager went away while we were waiting for the message.
+                dataStore.returnNetworkMessage(message);
+                continue;
+            }
+
+            queueMessage(session, message.getMessage());
+            dataStore.networkMessageDelivered(message);
+        }
+    }
+
+    private ReactorSession pickNetworkSession() {
+        try {
+            return networkSessions.get(random.nextInt(networkSessions.size()));
+        }
+        catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            //the list changed under us and is now empty.
+            return null;
+        }
+    }
+
+    /**
+     * Queues a message to be written to a session and asks the selector to write it.
+     *
+     * @param session the session to send the message on.
+     * @param message the message to send.
+     */
+    private void queueMessage(ReactorSession session, String message) {
+        session.getOutgoingFrames().add(MessageConverter.encodeMessage(message));
+        pendingWrites.add(session);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the selector to close a session once anything waiting has been written.
+     *
+     * @param session the session to close.
+     */
+    private void closeLater(ReactorSession session) {
+        pendingWrites.add(session);
+        selector.wakeup();
+    }
+
+    /**
+     * Closes a session and stops the selector watching it.
+     *
+     * @param session the session to close.
+     */
+    private void close(ReactorSession session) {
+        networkSessions.remove(session);
+        session.getKey().cancel();
+        try {
+            session.getChannel().close();
+        }
+        catch (IOException e) {
+            //we couldnt close the socket but we can ignore this.
+            e.printStackTrace();
+        }
+    }
+}
@@ -10,6 +10,7 @@ import java.net.SocketException;
  */
 public class CommunicationServer {
     private int portNumber;
+    private ConnectionExecutor connectionExecutor;
 
     /**
      * Constructor to start the communication server.
@@ -18,6 +19,7 @@ public class CommunicationServer {
      */
     public CommunicationServer(int portNumber) {
         this.portNumber = portNumber;
+        this.connectionExecutor = new ConnectionExecutor("CommunicationServer");
     }
 
     /**
@@ -36,8 +38,10 @@ public class CommunicationServer {
                 Socket socket = serverSoc.accept();
 
                 ConnectionHandler connectionHandler = new ConnectionHandler(socket);
-                Thread handleConnection = new Thread(connectionHandler);
-                handleConnection.start();
+                if (!connectionExecutor.execute(connectionHandler)) {
+                    System.out.println("Too many connections - turning away " + socket.getInetAddress().getHostAddress() + ".");
+                    socket.close();
+                }
             }
         }
         catch(SocketException se) {
@@ -23,7 +23,20 @@ public class CommunicationServerBootstrap {
             portNumber = DEFAULT_PORT;
         }
 
-        CommunicationServer server = new CommunicationServer(portNumber);
-        server.Start();
+        //the reactor serves every connection from one thread, the threaded server gives each its own thread.
+        if (args.length > 1 && args[1].equalsIgnoreCase("reactor")) {
+            int workerThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            System.out.println("Starting in reactor mode.");
+            CommunicationReactor reactor = new CommunicationReactor(portNumber, workerThreads);
+            reactor.Start();
+        }
+        else {
+            if (args.length > 1 && !args[1].equalsIgnoreCase("threaded")) {
+                System.out.println("Unknown mode entered - resorting to threaded mode.");
+            }
+            System.out.println("Starting in threaded mode.");
+            CommunicationServer server = new CommunicationServer(portNumber);
+            server.Start();
+        }
     }
 }
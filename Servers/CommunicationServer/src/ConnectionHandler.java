@@ -3,7 +3,6 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.Random;
 
 /**
  * Handles the connection for each client currently connected to the server.
@@ -15,8 +14,7 @@ public class ConnectionHandler implements Runnable {
     private DataInputStream dataIn;
     private DataOutputStream dataOut;
     private SharedDataStore dataStore;
-    private int bytesRead = 0;
-    private byte[] buffer = new byte[100];
+    private MessageProcessor messageProcessor;
     private String messageToProcess;
     private ConnectionState connectionState;
     private boolean isNetwork;
@@ -30,6 +28,7 @@ public class ConnectionHandler implements Runnable {
     public ConnectionHandler(Socket inSoc) {
         socket = inSoc;
         dataStore = SharedDataStore.getInstance();
+        messageProcessor = new MessageProcessor();
         isNetwork = false;
     }
 
@@ -47,18 +46,15 @@ public class ConnectionHandler implements Runnable {
             connectionState = ConnectionState.CONNECTED;
 
             //before we start handling messages, get the connection type
-            bytesRead = dataIn.read(buffer);
-            String messagePumpToRun = MessageConverter.byteToString(buffer, bytesRead);
+            String messagePumpToRun = MessageConverter.readMessage(dataIn);
 
-            if (messagePumpToRun.startsWith("SERVER")) {
-                messageToProcess = messagePumpToRun.substring(6);
+            if (messagePumpToRun.equals("SERVER")) {
                 doServerMessagePump();
                 if (isNetwork) {
                     doNetwork();
                 }
             }
-            else if (messagePumpToRun.startsWith("CLIENT")) {
-                messageToProcess = messagePumpToRun.substring(6);
+            else if (messagePumpToRun.equals("CLIENT")) {
                 doClientMessagePump();
             }
         }
@@ -77,24 +73,25 @@ public class ConnectionHandler implements Runnable {
      * Runs the network server message pump for this connection.
      */
     private void doNetwork() {
-        Random random = new Random(System.currentTimeMillis());
-        while (true) {
+        while (connectionState == ConnectionState.CONNECTED) {
+            NetworkMessage message;
             try {
-                Thread.sleep(random.nextInt(2000));
+                //this blocks until there is something to send, so we do nothing while there is nothing to do.
+                message = dataStore.takeNetworkMessage();
             }
             catch (InterruptedException e) {
-                e.printStackTrace();
+                return;
             }
 
-            String message = dataStore.getNetworkMessage();
-
-            if (message != null) {
-                try {
-                    dataOut.write(MessageConverter.stringToByte(message));
-                }
-                catch (IOException e) {
-                    e.printStackTrace();
-                }
+            try {
+                MessageConverter.writeMessage(dataOut, message.getMessage());
+                dataStore.networkMessageDelivered(message);
+            }
+            catch (IOException e) {
+                //this network manager has gone, give the message to another one.
+                dataStore.returnNetworkMessage(message);
+                System.out.println("Network manager " + socket.getInetAddress().getHostAddress() + " dropped.");
+                connectionState = ConnectionState.DISCONNECTING;
             }
         }
     }
@@ -105,81 +102,20 @@ public class ConnectionHandler implements Runnable {
     void doServerMessagePump() {
         try {
             while (connectionState == ConnectionState.CONNECTED && !isNetwork) {
-                if (messageToProcess.length() == 0) {
-                    //get the sent data
-                    buffer = new byte[100];
-                    bytesRead = dataIn.read(buffer);
-
-                    //convert message to string
-                    messageToProcess = MessageConverter.byteToString(buffer, bytesRead);
-                }
-
-                String[] arguments = messageToProcess.split(":");
-
-                //process messages
-                switch(arguments[0]) {
-                    //choose entered command
-                    case "SERVERTYPE" :
-                        //add the server to the corresponding list.
-                        int portNumber = Integer.parseInt(arguments[2]);
-                        dataStore.addServer(socket.getInetAddress().getHostAddress(), portNumber,
-                                Enum.valueOf(ServerType.class, arguments[1]));
-
-                        if (arguments[1].equalsIgnoreCase("NETWORK")) {
-                            //this connection handler is special
-                            isNetwork = true;
-                        }
-
-                        //inform the user that we have stored the server.
-                        buffer = MessageConverter.stringToByte("TYPESTORED");
-                        dataOut.write(buffer);
-                        messageToProcess = messageToProcess.substring(arguments[0].length() + 1 + arguments[1].length() + 1 + arguments[2].length());
-                        break;
+                //get the sent message
+                messageToProcess = MessageConverter.readMessage(dataIn);
 
-                    case "GETSERVER" :
-                        //here, we give the server an ip and port for a server in our list of online servers.
-                        if (arguments[1].equals("STORAGE")) {
-                            ServerConnectionDetails serverConnectionDetails = dataStore.getServer(Enum.valueOf(ServerType.class, arguments[1]));
-                            if (serverConnectionDetails == null) {
-                                buffer = MessageConverter.stringToByte("ERROR:No storage server exists.");
-                            }
-                            else {
-                                buffer = MessageConverter.stringToByte("IP:" + serverConnectionDetails.getIpAddress() +
-                                        ":PORT:" + serverConnectionDetails.getPortNumber());
-                            }
-                        }
-                        else { //a server has tried to request something that they should not.
-                            buffer = MessageConverter.stringToByte("ERROR:Incorrect server type.");
-                        }
-                        dataOut.write(buffer);
-                        messageToProcess = messageToProcess.substring(arguments[0].length() + 1 + arguments[1].length());
-                        break;
+                String reply = messageProcessor.processServerMessage(messageToProcess, socket.getInetAddress().getHostAddress());
 
-                    case "DISCONNECT" :
-                        connectionState = ConnectionState.DISCONNECTING;
-                        buffer = MessageConverter.stringToByte("DISCONNECT");
-                        dataOut.write(buffer);
-                        messageToProcess = messageToProcess.substring(arguments[0].length());
-                        break;
-
-                    case "DROPPED" :
-                        int portNumberDropped = Integer.parseInt(arguments[2]);
-                        dataStore.droppedClient(socket.getInetAddress().getHostAddress(), portNumberDropped,
-                                Enum.valueOf(ServerType.class, arguments[1]));
-                        buffer = MessageConverter.stringToByte("DROPPED");
-                        dataOut.write(buffer);
-                        messageToProcess = messageToProcess.substring(arguments[0].length() + 1 + arguments[1].length() + 1 + arguments[2].length());
-                        break;
-
-                    default:
-                        //message sent was unsupported.
-                        buffer = MessageConverter.stringToByte("MESSAGEUNSUPPORTED");
-                        dataOut.write(buffer);
-                        messageToProcess = ""; //there is no real way of handling this.
-                        break;
+                if (messageProcessor.isNetworkRegistration(messageToProcess)) {
+                    //this connection handler is special
+                    isNetwork = true;
+                }
+                else if (reply.equals("DISCONNECT")) {
+                    connectionState = ConnectionState.DISCONNECTING;
                 }
-                //ensure all data is flushed before we start to handle another message.
-                dataOut.flush();
+
+                MessageConverter.writeMessage(dataOut, reply);
             }
         }
         catch (IOException e) {
@@ -193,62 +129,16 @@ public class ConnectionHandler implements Runnable {
     void doClientMessagePump() {
         try {
             while (connectionState == ConnectionState.CONNECTED) {
-                if (messageToProcess.length() == 0) {
-                    //get the sent data
-                    buffer = new byte[100];
-                    bytesRead = dataIn.read(buffer);
-
-                    //convert message to string
-                    messageToProcess = MessageConverter.byteToString(buffer, bytesRead);
-                }
-
-                String[] arguments = messageToProcess.split(":");
-
-                //process messages
-                switch(arguments[0]) {
-                    //based on the state
-                    //choose entered command
-                    case "GETSERVER" :
-                        //here, we give the client an ip and port for a server in our list of online servers.
-                        if (arguments[1].equals("LOGIN") || arguments[1].equals("STREAMING")) {
-                            ServerConnectionDetails serverConnectionDetails = dataStore.getServer(Enum.valueOf(ServerType.class, arguments[1]));
-                            if (serverConnectionDetails == null) {
-                                buffer = MessageConverter.stringToByte("ERROR:No server of type '" + arguments[1] + "' exists.");
-                            }
-                            else {
-                                buffer = MessageConverter.stringToByte("IP:" + serverConnectionDetails.getIpAddress() +
-                                        ":PORT:" + serverConnectionDetails.getPortNumber());
-                            }
-                        }
-                        else { //a client has tried to request something that they should not.
-                            buffer = MessageConverter.stringToByte("ERROR:Incorrect server type.");
-                        }
-                        dataOut.write(buffer);
-                        messageToProcess = messageToProcess.substring(arguments[0].length() + 1 + arguments[1].length());
-                        break;
+                //get the sent message
+                messageToProcess = MessageConverter.readMessage(dataIn);
 
-                    case "HEARTBEAT" :
-                        buffer = MessageConverter.stringToByte("HEARTBEAT");
-                        dataOut.write(buffer);
-                        messageToProcess = messageToProcess.substring(arguments[0].length());
-                        break;
+                String reply = messageProcessor.processClientMessage(messageToProcess);
 
-                    case "DISCONNECT" :
-                        connectionState = ConnectionState.DISCONNECTING;
-                        buffer = MessageConverter.stringToByte("DISCONNECT");
-                        dataOut.write(buffer);
-                        messageToProcess = messageToProcess.substring(arguments[0].length());
-                        break;
-
-                    default:
-                        //state not set properly or in bad state. Reset and terminate connection
-                        buffer = MessageConverter.stringToByte("MESSAGEUNSUPPORTED");
-                        dataOut.write(buffer);
-                        messageToProcess = "";
-                        break;
+                if (reply.equals("DISCONNECT")) {
+                    connectionState = ConnectionState.DISCONNECTING;
                 }
-                //ensure all data is flushed before we start handling the next message.
-                dataOut.flush();
+
+                MessageConverter.writeMessage(dataOut, reply);
             }
         }
         catch (SocketException se) {
@@ -0,0 +1,148 @@
+/**
+ * Works out the reply for each message sent to the communication server.
+ *
+ * This holds no state about the connection itself so that it can be shared by the thread per connection handlers and
+ * the reactor's worker threads.
+ *
+ * @author Bradley Davis
+ */
+public class MessageProcessor {
+    private final SharedDataStore dataStore;
+
+    /**
+     * Constructor which sets all internal class variables.
+     */
+    public MessageProcessor() {
+        dataStore = SharedDataStore.getInstance();
+    }
+
+    /**
+     * Processes a message which has been sent by another server.
+     *
+     * @param message the message which was received.
+     * @param hostAddress the IP address of the server which sent the message.
+     * @return the reply to be sent back to the server.
+     */
+    public String processServerMessage(String message, String hostAddress) {
+        String[] arguments = message.split(":");
+        String reply;
+
+        try {
+            //process messages
+            switch(arguments[0]) {
+                //choose entered command
+                case "SERVERTYPE" :
+                    //add the server to the corresponding list.
+                    int portNumber = Integer.parseInt(arguments[2]);
+                    dataStore.addServer(hostAddress, portNumber, Enum.valueOf(ServerType.class, arguments[1]));
+
+                    //inform the user that we have stored the server.
+                    reply = "TYPESTORED";
+                    break;
+
+                case "GETSERVER" :
+                    //here, we give the server an ip and port for a server in our list of online servers.
+                    if (arguments[1].equals("STORAGE")) {
+                        ServerConnectionDetails serverConnectionDetails = dataStore.getServer(Enum.valueOf(ServerType.class, arguments[1]));
+                        if (serverConnectionDetails == null) {
+                            reply = "ERROR:No storage server exists.";
+                        }
+                        else {
+                            reply = "IP:" + serverConnectionDetails.getIpAddress() +
+                                    ":PORT:" + serverConnectionDetails.getPortNumber();
+                        }
+                    }
+                    else { //a server has tried to request something that they should not.
+                        reply = "ERROR:Incorrect server type.";
+                    }
+                    break;
+
+                case "DISCONNECT" :
+                    reply = "DISCONNECT";
+                    break;
+
+                case "DROPPED" :
+                    int portNumberDropped = Integer.parseInt(arguments[2]);
+                    dataStore.droppedClient(hostAddress, portNumberDropped, Enum.valueOf(ServerType.class, arguments[1]));
+                    reply = "DROPPED";
+                    break;
+
+                default:
+                    //message sent was unsupported.
+                    reply = "MESSAGEUNSUPPORTED";
+                    break;
+            }
+        }
+        catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            //the message was missing arguments or used a server type which does not exist.
+            reply = "MESSAGEUNSUPPORTED";
+        }
+
+        return reply;
+    }
+
+    /**
+     * Processes a message which has been sent by a client.
+     *
+     * @param message the message which was received.
+     * @return the reply to be sent back to the client.
+     */
+    public String processClientMessage(String message) {
+        String[] arguments = message.split(":");
+        String reply;
+
+        try {
+            //process messages
+            switch(arguments[0]) {
+                //choose entered command
+                case "GETSERVER" :
+                    //here, we give the client an ip and port for a server in our list of online servers.
+                    if (arguments[1].equals("LOGIN") || arguments[1].equals("STREAMING")) {
+                        ServerConnectionDetails serverConnectionDetails = dataStore.getServer(Enum.valueOf(ServerType.class, arguments[1]));
+                        if (serverConnectionDetails == null) {
+                            reply = "ERROR:No server of type '" + arguments[1] + "' exists.";
+                        }
+                        else {
+                            reply = "IP:" + serverConnectionDetails.getIpAddress() +
+                                    ":PORT:" + serverConnectionDetails.getPortNumber();
+                        }
+                    }
+                    else { //a client has tried to request something that they should not.
+                        reply = "ERROR:Incorrect server type.";
+                    }
+                    break;
+
+                case "HEARTBEAT" :
+                    reply = "HEARTBEAT";
+                    break;
+
+                case "DISCONNECT" :
+                    reply = "DISCONNECT";
+                    break;
+
+                default:
+                    //state not set properly or in bad state. Reset and terminate connection
+                    reply = "MESSAGEUNSUPPORTED";
+                    break;
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException e) {
+            //the message was missing arguments.
+            reply = "MESSAGEUNSUPPORTED";
+        }
+
+        return reply;
+    }
+
+    /**
+     * Checks whether a message is a network manager registering itself. Once registered, the connection is only used
+     * to send network messages out to the network manager.
+     *
+     * @param message the message which was received.
+     * @return whether the message registered a network manager.
+     */
+    public boolean isNetworkRegistration(String message) {
+        String[] arguments = message.split(":");
+        return arguments.length > 1 && arguments[0].equals("SERVERTYPE") && arguments[1].equalsIgnoreCase("NETWORK");
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * A message waiting to be sent to a network manager, along with when it was queued so that we can tell how long it
+ * took to be delivered.
+ *
+ * @author Bradley Davis
+ */
+public class NetworkMessage {
+    private final String message;
+    private final long queuedAt;
+
+    /**
+     * Constructor which sets all internal class variables.
+     *
+     * @param message the message to be sent.
+     */
+    NetworkMessage(String message) {
+        this.message = message;
+        this.queuedAt = System.nanoTime();
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Method to get when the message was queued.
+     *
+     * @return the value of {@link System#nanoTime()} when the message was queued.
+     */
+    public long getQueuedAt() {
+        return queuedAt;
+    }
+}
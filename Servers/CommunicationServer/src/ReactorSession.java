@@ -0,0 +1,132 @@
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Class to store the state of a single connection which is being served by the {@link CommunicationReactor}.
+ *
+ * The selector thread fills the read buffer and drains the outgoing queue, while a worker thread processes the
+ * incoming messages. Only one worker will process a session's messages at a time so that replies keep their order.
+ *
+ * @author Bradley Davis
+ */
+public class ReactorSession {
+    private static final int INITIAL_BUFFER_SIZE = 512;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final String hostAddress;
+    private final Queue<String> incomingMessages;
+    private final Queue<ByteBuffer> outgoingFrames;
+    private final AtomicBoolean scheduled;
+    private ByteBuffer readBuffer;
+    private volatile String connectionType;
+    private volatile boolean isNetwork;
+    private volatile ConnectionState connectionState;
+
+    /**
+     * Constructor which sets all internal class variables.
+     *
+     * @param channel the channel for the connection.
+     * @param key the key which the channel was registered with.
+     */
+    ReactorSession(SocketChannel channel, SelectionKey key) {
+        this.channel = channel;
+        this.key = key;
+        this.hostAddress = channel.socket().getInetAddress().getHostAddress();
+        this.incomingMessages = new ConcurrentLinkedQueue<String>();
+        this.outgoingFrames = new ConcurrentLinkedQueue<ByteBuffer>();
+        this.scheduled = new AtomicBoolean(false);
+        this.readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        this.connectionType = null;
+        this.isNetwork = false;
+        this.connectionState = ConnectionState.CONNECTED;
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    public SelectionKey getKey() {
+        return key;
+    }
+
+    public String getHostAddress() {
+        return hostAddress;
+    }
+
+    public Queue<String> getIncomingMessages() {
+        return incomingMessages;
+    }
+
+    public Queue<ByteBuffer> getOutgoingFrames() {
+        return outgoingFrames;
+    }
+
+    /**
+     * Marks the session as having a worker processing its messages.
+     *
+     * @return true if the caller should start a worker, false if one is already running.
+     */
+    public boolean schedule() {
+        return scheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Marks the session as no longer having a worker processing its messages.
+     */
+    public void unschedule() {
+        scheduled.set(false);
+    }
+
+    /**
+     * Method to get the buffer which the selector reads into. This is only touched by the selector thread.
+     *
+     * @return the read buffer, ready to be written to.
+     */
+    public ByteBuffer getReadBuffer() {
+        return readBuffer;
+    }
+
+    /**
+     * Doubles the size of the read buffer so that a frame bigger than it can be read.
+     */
+    public void growReadBuffer() {
+        ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+        readBuffer.flip();
+        larger.put(readBuffer);
+        readBuffer = larger;
+    }
+
+    /**
+     * Method to get whether the connection said it was a SERVER or a CLIENT.
+     *
+     * @return SERVER, CLIENT or null if the connection has not said yet.
+     */
+    public String getConnectionType() {
+        return connectionType;
+    }
+
+    public void setConnectionType(String connectionType) {
+        this.connectionType = connectionType;
+    }
+
+    public boolean isNetwork() {
+        return isNetwork;
+    }
+
+    public void setNetwork(boolean isNetwork) {
+        this.isNetwork = isNetwork;
+    }
+
+    public ConnectionState getConnectionState() {
+        return connectionState;
+    }
+
+    public void setConnectionState(ConnectionState connectionState) {
+        this.connectionState = connectionState;
+    }
+}
@@ -1,4 +1,7 @@
 import java.util.*;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Allows for shared data storage across all threads.
@@ -11,7 +14,10 @@ public class SharedDataStore {
     private final List<ServerConnectionDetails> streamingServers;
     private final List<ServerConnectionDetails> storageServers;
     private final List<ServerConnectionDetails> networkServers;
-    private final Queue<String> networkMessages;
+    private final BlockingDeque<NetworkMessage> networkMessages;
+    private final AtomicLong networkMessagesDelivered;
+    private final AtomicLong totalDeliveryNanos;
+    private final AtomicLong maxDeliveryNanos;
     private final Random numberGen;
 
     /**
@@ -22,7 +28,10 @@ public class SharedDataStore {
         streamingServers = new ArrayList<ServerConnectionDetails>();
         storageServers = new ArrayList<ServerConnectionDetails>();
         networkServers = new ArrayList<ServerConnectionDetails>();
-        networkMessages = new LinkedList<String>();
+        networkMessages = new LinkedBlockingDeque<NetworkMessage>();
+        networkMessagesDelivered = new AtomicLong(0);
+        totalDeliveryNanos = new AtomicLong(0);
+        maxDeliveryNanos = new AtomicLong(0);
         numberGen = new Random(System.currentTimeMillis());
     }
 
@@ -234,28 +243,50 @@ public class SharedDataStore {
     }
 
     /**
-     * Adds a message to the network message queue.
+     * Adds a message to the network message queue. A network manager waiting for a message will be woken straight away.
      *
      * @param message the message to be added to the queue.
      */
     private void addNetworkMessage(String message) {
-        synchronized (networkMessages) {
-            networkMessages.add(message);
-        }
+        networkMessages.add(new NetworkMessage(message));
     }
 
     /**
-     * Gets a message from the network message queue.
+     * Waits for a message from the network message queue. Each network manager's handler waits here, and each message
+     * is given to only one of them.
      *
      * @return a message from the queue.
+     * @throws InterruptedException if the thread was interrupted while waiting.
      */
-    public String getNetworkMessage() {
-        String toReturn = null;
-        synchronized (networkMessages) {
-            if (networkMessages.size() > 0) {
-                toReturn = networkMessages.remove();
-            }
-        }
-        return toReturn;
+    public NetworkMessage takeNetworkMessage() throws InterruptedException {
+        return networkMessages.take();
+    }
+
+    /**
+     * Puts a message back at the front of the queue, such as when the network manager it was meant for has gone.
+     *
+     * @param message the message which could not be delivered.
+     */
+    public void returnNetworkMessage(NetworkMessage message) {
+        networkMessages.addFirst(message);
+    }
+
+    /**
+     * Records that a message has been sent to a network manager and logs how long it took to get there.
+     *
+     * @param message the message which was delivered.
+     */
+    public void networkMessageDelivered(NetworkMessage message) {
+        long deliveryNanos = System.nanoTime() - message.getQueuedAt();
+        long delivered = networkMessagesDelivered.incrementAndGet();
+        long total = totalDeliveryNanos.addAndGet(deliveryNanos);
+        long max = maxDeliveryNanos.accumulateAndGet(deliveryNanos, Math::max);
+
+        System.out.println("Network message " + message.getMessage() + " delivered in " + toMillis(deliveryNanos) + " ms"
+                + " (delivered=" + delivered + " avg=" + toMillis(total / delivered) + " ms max=" + toMillis(max) + " ms).");
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.3f", nanos / 1000000.0);
     }
 }
@@ -0,0 +1,319 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the users who have recently logged in, so that logging in again does not need the storage server.
+ *
+ * Passwords are never kept: each user gets a random salt and only a SHA-256 digest of the salt and password is
+ * remembered. A user is forgotten the number of seconds picked with the "auth.ttl" system property after the storage
+ * server last logged them in, or sooner if the most users picked with "auth.entries" are remembered and room is needed.
+ * An "auth.ttl" of 0 turns the cache off.
+ *
+ * Every {@link #REFRESH_INTERVAL} milliseconds the storage server is asked which accounts have changed, and those users
+ * are forgotten. If it cannot be asked, every user is forgotten, and if the refreshes stop for {@link #MAX_STALENESS}
+ * milliseconds, nothing which is remembered is trusted until they start again.
+ *
+ * @author Bradley Davis
+ */
+public class AuthCache {
+    private static final long DEFAULT_TTL_SECONDS = 300;
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+    private static final int SALT_SIZE = 16;
+    private static final long REFRESH_INTERVAL = 5000;
+    private static final long MAX_STALENESS = 3 * REFRESH_INTERVAL;
+    private static final long REPORT_INTERVAL = 60000;
+
+    private final long ttl;
+    private final int maxEntries;
+    private final Map<String, Credential> credentials;
+    private final SecureRandom random;
+    private String source;
+    private long version;
+    private volatile long lastRefreshed;
+    private long hits;
+    private long misses;
+
+    public AuthCache() {
+        this.ttl = readTtlSeconds() * 1000;
+        this.maxEntries = readMaxEntries();
+        //access order, so the user who logged in longest ago comes first when room is needed.
+        this.credentials = new LinkedHashMap<String, Credential>(16, 0.75f, true);
+        this.random = new SecureRandom();
+        this.source = null;
+        this.version = -1;
+        this.lastRefreshed = 0;
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    /**
+     * Starts asking the storage server for changed accounts on a background thread, unless the cache is turned off. The
+     * same thread logs the counters whenever they have changed.
+     *
+     * @param parent the server, for its storage server and connections to it.
+     */
+    public void start(BaseServer parent) {
+        if (ttl <= 0) {
+            System.out.println("Login cache turned off.");
+            return;
+        }
+
+        Thread refreshThread = new Thread(() -> {
+            String lastMetrics = "";
+            long lastReported = System.currentTimeMillis();
+            while (true) {
+                refresh(parent);
+
+                if (System.currentTimeMillis() - lastReported >= REPORT_INTERVAL) {
+                    String metrics = getMetrics();
+                    if (!metrics.equals(lastMetrics)) {
+                        System.out.println("Login cache metrics: " + metrics);
+                        lastMetrics = metrics;
+                    }
+                    lastReported = System.currentTimeMillis();
+                }
+
+                try {
+                    Thread.sleep(REFRESH_INTERVAL);
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "AuthCache");
+        refreshThread.setDaemon(true);
+        refreshThread.start();
+    }
+
+    /**
+     * Checks a username and password against the users who have recently logged in.
+     *
+     * @param username the username of the user.
+     * @param password the password of the user.
+     * @return whether the user has logged in recently with this password. If not, the storage server should be asked.
+     */
+    public synchronized boolean verify(String username, String password) {
+        long now = System.currentTimeMillis();
+        Credential credential = credentials.get(username);
+        if (credential == null || now - lastRefreshed > MAX_STALENESS) {
+            misses++;
+            return false;
+        }
+        if (now >= credential.expires) {
+            credentials.remove(username);
+            misses++;
+            return false;
+        }
+
+        //a wrong password is left to the storage server to turn down, in case the password has just been changed.
+        if (!MessageDigest.isEqual(credential.digest, digest(credential.salt, password))) {
+            misses++;
+            return false;
+        }
+
+        hits++;
+        return true;
+    }
+
+    /**
+     * Method to get the version of the storage server's accounts which the cache is up to date with. This should be
+     * taken before asking the storage server to log someone in and handed back to {@link #put}.
+     *
+     * @return the version.
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Remembers a user whom the storage server has just logged in.
+     *
+     * @param username the username of the user.
+     * @param password the password which the storage server accepted.
+     * @param askedAt the version from {@link #getVersion()} taken before the storage server was asked.
+     */
+    public synchronized void put(String username, String password, long askedAt) {
+        if (ttl <= 0 || askedAt != version) {
+            //the account may have changed after the storage server accepted the password.
+            return;
+        }
+
+        byte[] salt = new byte[SALT_SIZE];
+        random.nextBytes(salt);
+        credentials.put(username, new Credential(salt, digest(salt, password), System.currentTimeMillis() + ttl));
+
+        if (credentials.size() > maxEntries) {
+            String oldest = credentials.keySet().iterator().next();
+            credentials.remove(oldest);
+        }
+    }
+
+    /**
+     * Forgets a user, such as when their account has changed.
+     *
+     * @param username the username of the user.
+     */
+    public synchronized void invalidate(String username) {
+        credentials.remove(username);
+    }
+
+    /**
+     * Method to get the counters for the cache, for logging.
+     *
+     * @return the counters as a single line.
+     */
+    public synchronized String getMetrics() {
+        return "authEntries=" + credentials.size() + "/" + maxEntries + " authHits=" + hits + " authMisses=" + misses;
+    }
+
+    /**
+     * Asks the storage server which accounts have changed since it was last asked and forgets those users. If the
+     * storage server cannot say, or is not the one which was asked last time, every user is forgotten.
+     *
+     * @param parent the server, for its storage server and connections to it.
+     */
+    private void refresh(BaseServer parent) {
+        ServerConnectionDetails myStorageServer = parent.getStorageServerResolver().getStorageServer();
+        if (myStorageServer == null) {
+            return;
+        }
+
+        StorageConnectionPool pool = parent.getStorageConnectionPool();
+        StorageConnection storageServer = null;
+        try {
+            storageServer = pool.borrow(myStorageServer);
+
+            //versions only mean something to the storage server which gave them out.
+            String askedSource = myStorageServer.getIpAddress() + ":" + myStorageServer.getPortNumber();
+            long since;
+            synchronized (this) {
+                since = askedSource.equals(source) ? version : -1;
+            }
+
+            storageServer.writeMessage("ACCOUNTCHANGES:" + since);
+
+            //changed usernames are packed into messages one per line.
+            String[] header = storageServer.readMessage().split(":");
+            List<String> changed = new ArrayList<String>();
+            Frame frame = storageServer.readFrame();
+            while (frame.getType() != MessageType.END) {
+                Collections.addAll(changed, frame.getText().split("\n"));
+                frame = storageServer.readFrame();
+            }
+
+            long newVersion;
+            try {
+                newVersion = Long.parseLong(header[1]);
+            }
+            catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Unexpected reply to ACCOUNTCHANGES: " + String.join(":", header));
+            }
+
+            synchronized (this) {
+                if (header[0].equals("RESET")) {
+                    credentials.clear();
+                }
+                else if (!header[0].equals("VERSION")) {
+                    throw new IOException("Unexpected reply to ACCOUNTCHANGES: " + String.join(":", header));
+                }
+
+                for (String username : changed) {
+                    credentials.remove(username);
+                }
+                source = askedSource;
+                version = newVersion;
+                lastRefreshed = System.currentTimeMillis();
+            }
+        }
+        catch (IOException e) {
+            //the storage server may have restarted or been replaced, so whatever it told us before no longer counts.
+            synchronized (this) {
+                credentials.clear();
+                source = null;
+            }
+            if (storageServer != null) {
+                storageServer.markBroken();
+            }
+            parent.getStorageServerResolver().invalidate(myStorageServer);
+            System.out.println("Unable to ask the storage server which accounts have changed.");
+        }
+        finally {
+            pool.release(storageServer);
+        }
+    }
+
+    private static byte[] digest(byte[] salt, String password) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(salt);
+            return sha256.digest(password.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (NoSuchAlgorithmException e) {
+            //every JVM has to provide SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long readTtlSeconds() {
+        String seconds = System.getProperty("auth.ttl");
+        if (seconds == null) {
+            return DEFAULT_TTL_SECONDS;
+        }
+
+        try {
+            long parsed = Long.parseLong(seconds);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        }
+        catch (NumberFormatException nfe) {
+            //fall through to the default below.
+        }
+
+        System.out.println("Invalid auth.ttl provided - resorting to " + DEFAULT_TTL_SECONDS + ".");
+        return DEFAULT_TTL_SECONDS;
+    }
+
+    private static int readMaxEntries() {
+        String entries = System.getProperty("auth.entries");
+        if (entries == null) {
+            return DEFAULT_MAX_ENTRIES;
+        }
+
+        try {
+            int parsed = Integer.parseInt(entries);
+            if (parsed > 0) {
+                return parsed;
+            }
+        }
+        catch (NumberFormatException nfe) {
+            //fall through to the default below.
+        }
+
+        System.out.println("Invalid auth.entries provided - resorting to " + DEFAULT_MAX_ENTRIES + ".");
+        return DEFAULT_MAX_ENTRIES;
+    }
+
+    /**
+     * What is remembered about a user who has logged in.
+     */
+    private static class Credential {
+        private final byte[] salt;
+        private final byte[] digest;
+        private final long expires;
+
+        private Credential(byte[] salt, byte[] digest, long expires) {
+            this.salt = salt;
+            this.digest = digest;
+            this.expires = expires;
+        }
+    }
+}
@@ -1,4 +1,5 @@
 import java.io.*;
+import java.net.Socket;
 
 /**
  * Base server class for the others to be built on top of.
@@ -9,6 +10,9 @@ public class BaseServer {
     protected int portNumber;
     protected ServerConnectionDetails communicationServerDetails;
     public int numConnections;
+    protected ConnectionExecutor connectionExecutor;
+    protected StorageConnectionPool storageConnectionPool;
+    protected StorageServerResolver storageServerResolver;
 
     /**
      * Constructor for base class to set up the necessary internal variables.
@@ -18,6 +22,9 @@ public class BaseServer {
     public BaseServer(int portNumber) {
         this.portNumber = portNumber;
         this.numConnections = 0;
+        this.connectionExecutor = new ConnectionExecutor(getClass().getSimpleName());
+        this.storageConnectionPool = new StorageConnectionPool();
+        this.storageServerResolver = new StorageServerResolver(storageConnectionPool);
     }
 
     /**
@@ -38,6 +45,46 @@ public class BaseServer {
         return false;
     }
 
+    /**
+     * Method to get the pool of connections to the storage servers which is shared by all of this server's handlers.
+     *
+     * @return the storage connection pool.
+     */
+    public StorageConnectionPool getStorageConnectionPool() {
+        return storageConnectionPool;
+    }
+
+    /**
+     * Method to get the storage server lookup which is shared by all of this server's handlers.
+     *
+     * @return the storage server resolver.
+     */
+    public StorageServerResolver getStorageServerResolver() {
+        return storageServerResolver;
+    }
+
+    /**
+     * Runs a connection handler on the server's executor, turning the connection away if there is no room for it.
+     *
+     * @param socket the socket the handler is serving.
+     * @param handler the handler to run.
+     */
+    protected void handleConnection(Socket socket, Runnable handler) {
+        if (connectionExecutor.execute(handler)) {
+            return;
+        }
+
+        System.out.println("Too many connections - turning away " + socket.getInetAddress().getHostAddress() + ".");
+        numConnections--;
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            //we couldnt close the socket but we can ignore this.
+            e.printStackTrace();
+        }
+    }
+
     protected ServerConnectionDetails getCommunicationServerDetails() throws IOException {
         String ipAddress = null;
         int portNumber = 0;
@@ -0,0 +1,228 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs connection handlers so that the accept loops do not need to know what kind of thread a handler is given.
+ *
+ * The mode is picked with the "executor" system property:
+ * "virtual" runs each handler on its own virtual thread (the default where the JVM supports them),
+ * "pool" runs handlers on a bounded pool of platform threads and
+ * "thread" gives each handler a new platform thread as the servers always used to.
+ * The size of the pool is picked with the "executor.threads" system property. A connection holds its thread for as long
+ * as the client stays connected, so connections are never queued for the pool; once every thread is busy new
+ * connections are turned away. Where virtual threads are not supported, each handler gets a platform thread instead.
+ *
+ * @author Bradley Davis
+ */
+public class ConnectionExecutor {
+    private static final int DEFAULT_POOL_THREADS = 256;
+    private static final long REPORT_INTERVAL = 60000;
+
+    private final String name;
+    private final String mode;
+    private final ThreadFactory threadFactory;
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong submitted;
+    private final AtomicLong completed;
+    private final AtomicLong rejected;
+    private final AtomicInteger active;
+    private final AtomicInteger peakActive;
+
+    /**
+     * Constructor which reads the system properties and sets up the chosen executor.
+     *
+     * @param name the name of the server, used for thread names and logging.
+     */
+    public ConnectionExecutor(String name) {
+        this.name = name;
+        this.submitted = new AtomicLong(0);
+        this.completed = new AtomicLong(0);
+        this.rejected = new AtomicLong(0);
+        this.active = new AtomicInteger(0);
+        this.peakActive = new AtomicInteger(0);
+
+        String requestedMode = System.getProperty("executor", "virtual").toLowerCase();
+        ThreadFactory virtualThreadFactory = null;
+
+        if (requestedMode.equals("virtual")) {
+            virtualThreadFactory = createVirtualThreadFactory(name);
+            if (virtualThreadFactory == null) {
+                //a pool would leave connections waiting for others to disconnect, so keep to a thread each.
+                System.out.println("Virtual threads are not supported by this JVM - resorting to a thread per connection.");
+                requestedMode = "thread";
+            }
+        }
+        else if (!requestedMode.equals("pool") && !requestedMode.equals("thread")) {
+            System.out.println("Unknown executor " + requestedMode + " - resorting to a thread per connection.");
+            requestedMode = "thread";
+        }
+
+        this.mode = requestedMode;
+
+        if (mode.equals("virtual")) {
+            this.threadFactory = virtualThreadFactory;
+            this.pool = null;
+        }
+        else if (mode.equals("pool")) {
+            int threads = readPoolThreads();
+            this.threadFactory = createPlatformThreadFactory(name);
+            this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), threadFactory);
+            this.pool.allowCoreThreadTimeOut(true);
+        }
+        else {
+            this.threadFactory = createPlatformThreadFactory(name);
+            this.pool = null;
+        }
+
+        System.out.println(name + " handling connections with " + describe() + ".");
+        startReporting();
+    }
+
+    /**
+     * Runs a connection handler.
+     *
+     * @param handler the handler to run.
+     * @return true if the handler will be run, false if the pool is full and the connection should be turned away.
+     */
+    public boolean execute(Runnable handler) {
+        Runnable tracked = () -> {
+            int nowActive = active.incrementAndGet();
+            peakActive.accumulateAndGet(nowActive, Math::max);
+            try {
+                handler.run();
+            }
+            finally {
+                active.decrementAndGet();
+                completed.incrementAndGet();
+            }
+        };
+
+        try {
+            if (pool != null) {
+                pool.execute(tracked);
+            }
+            else {
+                threadFactory.newThread(tracked).start();
+            }
+        }
+        catch (RejectedExecutionException | OutOfMemoryError e) {
+            //we have run out of room for more connections, the caller will turn this one away.
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        submitted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Method to get which executor is in use.
+     *
+     * @return "virtual", "pool" or "thread".
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * Method to get a one line summary of how many handlers have been run.
+     *
+     * @return the current metrics as a string.
+     */
+    public String getMetrics() {
+        return "executor=" + mode
+                + " submitted=" + submitted.get()
+                + " active=" + active.get()
+                + " peakActive=" + peakActive.get()
+                + " completed=" + completed.get()
+                + " rejected=" + rejected.get();
+    }
+
+    private String describe() {
+        switch (mode) {
+            case "virtual":
+                return "virtual threads";
+            case "pool":
+                return "a pool of " + pool.getMaximumPoolSize() + " threads";
+            default:
+                return "a platform thread per connection";
+        }
+    }
+
+    /**
+     * Starts a background thread which logs the metrics whenever they have changed.
+     */
+    private void startReporting() {
+        Thread reporter = new Thread(() -> {
+            String lastMetrics = "";
+            while (true) {
+                try {
+                    Thread.sleep(REPORT_INTERVAL);
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+
+                String metrics = getMetrics();
+                if (!metrics.equals(lastMetrics)) {
+                    System.out.println(name + " metrics: " + metrics);
+                    lastMetrics = metrics;
+                }
+            }
+        }, name + "-metrics");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    private static int readPoolThreads() {
+        String threads = System.getProperty("executor.threads");
+        if (threads == null) {
+            return DEFAULT_POOL_THREADS;
+        }
+
+        try {
+            int parsed = Integer.parseInt(threads);
+            if (parsed > 0) {
+                return parsed;
+            }
+        }
+        catch (NumberFormatException nfe) {
+            //fall through to the default below.
+        }
+
+        System.out.println("Invalid executor.threads provided - resorting to " + DEFAULT_POOL_THREADS + ".");
+        return DEFAULT_POOL_THREADS;
+    }
+
+    private static ThreadFactory createPlatformThreadFactory(String name) {
+        AtomicInteger count = new AtomicInteger(0);
+        return handler -> new Thread(handler, name + "-handler-" + count.incrementAndGet());
+    }
+
+    /**
+     * Creates a factory for virtual threads. This is done through reflection so the servers still build and run on
+     * JVMs older than 21, where we return null and a thread per connection is used instead.
+     *
+     * @param name the name to give the threads.
+     * @return the factory, or null if virtual threads are not available.
+     */
+    private static ThreadFactory createVirtualThreadFactory(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-handler-", 1L);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the most played songs in the cache mapped into memory, so that they can be sent without opening and reading
+ * the file every time.
+ *
+ * A song is mapped once it has been played {@link #PROMOTE_AFTER} times, as long as it fits in the memory budget or
+ * is played more than the least played song already mapped, which is then dropped to make room. The budget is picked
+ * with the "hot.bytes" system property, and 0 turns the tier off. Songs are mapped and checksummed without holding the
+ * tier's lock, so other songs can be looked up and sent from memory in the meantime.
+ *
+ * @author Bradley Davis
+ */
+public class HotSongTier {
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    private static final long PROMOTE_AFTER = 3;
+
+    private final long maxBytes;
+    private final Map<String, HotSong> songs;
+    private final Set<String> promoting;
+    private final SongChecksums songChecksums;
+    private long usedBytes;
+    private final AtomicLong hits;
+
+    public HotSongTier() {
+        this.maxBytes = readMaxBytes();
+        this.songs = new HashMap<String, HotSong>();
+        this.promoting = new HashSet<String>();
+        this.songChecksums = SongChecksums.getInstance();
+        this.usedBytes = 0;
+        this.hits = new AtomicLong(0);
+    }
+
+    /**
+     * Records that a cached song has been played, mapping it into memory if it is now one of the most played.
+     *
+     * @param song the title of the song.
+     * @param file the cached song.
+     * @param uses how many times the song has been played.
+     * @return whether the song was newly mapped, in which case the caller should check it was not evicted meanwhile.
+     */
+    public boolean used(String song, File file, long uses) {
+        long size = file.length();
+        synchronized (this) {
+            HotSong hot = songs.get(song);
+            if (hot != null) {
+                hot.uses = uses;
+                return false;
+            }
+
+            if (uses < PROMOTE_AFTER || size == 0 || size > maxBytes || size > Integer.MAX_VALUE
+                    || !hasRoomFor(size, uses) || !promoting.add(song)) {
+                return false;
+            }
+        }
+
+        HotSong mapped = null;
+        try {
+            mapped = map(file, size, uses);
+        }
+        catch (NoSuchFileException e) {
+            //the song was evicted before we got to it.
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        synchronized (this) {
+            promoting.remove(song);
+            //other songs may have been mapped in the meantime, so make sure there is still room.
+            if (mapped == null || !makeRoom(size, uses)) {
+                return false;
+            }
+            songs.put(song, mapped);
+            usedBytes += size;
+            return true;
+        }
+    }
+
+    /**
+     * Gets a song from memory if it is mapped.
+     *
+     * @param song the title of the song.
+     * @return the song, or null if it is not mapped.
+     */
+    public synchronized HotSong get(String song) {
+        HotSong hot = songs.get(song);
+        if (hot != null) {
+            hits.incrementAndGet();
+        }
+        return hot;
+    }
+
+    /**
+     * Drops a song from memory, such as when it is about to be removed from the cache.
+     *
+     * @param song the title of the song.
+     */
+    public synchronized void remove(String song) {
+        HotSong hot = songs.remove(song);
+        if (hot != null) {
+            usedBytes -= hot.buffer.capacity();
+        }
+    }
+
+    /**
+     * Method to get the counters for the tier, for logging.
+     *
+     * @return the counters as a single line.
+     */
+    public synchronized String getMetrics() {
+        return "hotSongs=" + songs.size() + " hotBytes=" + usedBytes + "/" + maxBytes + " hotHits=" + hits.get();
+    }
+
+    /**
+     * Maps a song into memory and works out its checksum.
+     *
+     * @param file the cached song.
+     * @param size the size of the song.
+     * @param uses how many times the song has been played.
+     * @return the mapped song.
+     * @throws IOException if the song could not be mapped.
+     */
+    private HotSong map(File file, long size, long uses) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath());
+        try {
+            //the mapping stays valid once the channel is closed.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            long checksum = songChecksums.getChecksum(file.getPath(), channel);
+            return new HotSong(buffer, checksum, uses);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Checks whether a song would fit, either in the space left or in place of songs which are played less.
+     *
+     * @param size the size of the song.
+     * @param uses how many times the song has been played.
+     * @return whether the song would fit.
+     */
+    private boolean hasRoomFor(long size, long uses) {
+        long free = maxBytes - usedBytes;
+        for (HotSong hot : songs.values()) {
+            if (free >= size) {
+                break;
+            }
+            if (hot.uses < uses) {
+                free += hot.buffer.capacity();
+            }
+        }
+        return free >= size;
+    }
+
+    /**
+     * Drops the least played songs until a song fits.
+     *
+     * @param size the size of the song.
+     * @param uses how many times the song has been played.
+     * @return whether the song now fits, which it will not if everything mapped is played at least as much.
+     */
+    private boolean makeRoom(long size, long uses) {
+        while (usedBytes + size > maxBytes) {
+            String coldest = null;
+            for (Map.Entry<String, HotSong> entry : songs.entrySet()) {
+                if (coldest == null || entry.getValue().uses < songs.get(coldest).uses) {
+                    coldest = entry.getKey();
+                }
+            }
+            if (coldest == null || songs.get(coldest).uses >= uses) {
+                //everything already mapped is played at least as much as this song.
+                return false;
+            }
+            remove(coldest);
+        }
+        return true;
+    }
+
+    private static long readMaxBytes() {
+        String bytes = System.getProperty("hot.bytes");
+        if (bytes == null) {
+            return DEFAULT_MAX_BYTES;
+        }
+
+        try {
+            long parsed = Long.parseLong(bytes);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        }
+        catch (NumberFormatException nfe) {
+            //fall through to the default below.
+        }
+
+        System.out.println("Invalid hot.bytes provided - resorting to " + DEFAULT_MAX_BYTES + ".");
+        return DEFAULT_MAX_BYTES;
+    }
+
+    /**
+     * A song which is mapped into memory.
+     */
+    public static class HotSong {
+        private final ByteBuffer buffer;
+        private final long checksum;
+        private long uses;
+
+        private HotSong(ByteBuffer buffer, long checksum, long uses) {
+            this.buffer = buffer;
+            this.checksum = checksum;
+            this.uses = uses;
+        }
+
+        /**
+         * Method to get the song's bytes. Each caller gets their own view, so many clients can be sent the song at once.
+         *
+         * @return a read only view of the whole song.
+         */
+        public ByteBuffer getBuffer() {
+            return buffer.asReadOnlyBuffer();
+        }
+
+        public long getChecksum() {
+            return checksum;
+        }
+    }
+}
@@ -11,9 +11,11 @@ import java.util.List;
  * @author Bradley Davis
  */
 public class LoginConnectionHandler extends ConnectionHandler {
+    private final AuthCache authCache;
 
-    public LoginConnectionHandler(Socket socket, ServerConnectionDetails communicationServer, BaseServer parent) {
+    public LoginConnectionHandler(Socket socket, AuthCache authCache, ServerConnectionDetails communicationServer, BaseServer parent) {
         super(socket, communicationServer, parent);
+        this.authCache = authCache;
     }
 
     @Override
@@ -43,44 +45,39 @@ public class LoginConnectionHandler extends ConnectionHandler {
     private void doMessagePump() {
         try {
             while (connectionState != ConnectionState.DISCONNECTING) {
-                buffer = new byte[200];
-                bytesRead = dataInputStream.read(buffer);
-
-                //convert message to string for easier handling
-                String messageToProcess = MessageConverter.byteToString(buffer, bytesRead);
+                //read the next whole message sent by the client
+                String messageToProcess = MessageConverter.readMessage(dataInputStream);
 
                 String[] arguments = messageToProcess.split(":");
 
                 switch (arguments[0]) {
                     case "DISCONNECT":
                         connectionState = ConnectionState.DISCONNECTING;
-                        dataOutputStream.write(MessageConverter.stringToByte("DISCONNECT"));
+                        MessageConverter.writeMessage(dataOutputStream, "DISCONNECT");
                         break;
 
                     case "CREATE":
                         if (arguments.length < 3) {
-                            dataOutputStream.write(MessageConverter.stringToByte("ERROR:Not enough params"));
+                            MessageConverter.writeMessage(dataOutputStream, "ERROR:Not enough params");
                         }
                         else {
-                            dataOutputStream.write(MessageConverter.stringToByte(addUser(arguments[1], arguments[2])));
+                            MessageConverter.writeMessage(dataOutputStream, addUser(arguments[1], arguments[2]));
                         }
                         break;
 
                     case "LOGIN":
                         if (arguments.length < 3) {
-                            dataOutputStream.write(MessageConverter.stringToByte("ERROR:Not enough params"));
+                            MessageConverter.writeMessage(dataOutputStream, "ERROR:Not enough params");
                         }
                         else {
-                            dataOutputStream.write(MessageConverter.stringToByte(login(arguments[1], arguments[2])));
+                            MessageConverter.writeMessage(dataOutputStream, login(arguments[1], arguments[2]));
                         }
                         break;
 
                     default:
-                        buffer = MessageConverter.stringToByte("MESSAGEUNSUPPORTED");
-                        dataOutputStream.write(buffer);
+                        MessageConverter.writeMessage(dataOutputStream, "MESSAGEUNSUPPORTED");
                         break;
                 }
-                dataOutputStream.flush();
             }
         }
         catch (IOException e) {
@@ -91,13 +88,19 @@ public class LoginConnectionHandler extends ConnectionHandler {
     }
 
     /**
-     * Checks with the storage server to see if the user exists.
+     * Checks with the storage server to see if the user exists, unless they have logged in recently with the same
+     * password.
      *
      * @param username the username of the user.
      * @param password the password of the user.
      * @return whether or not the user was logged in successfully.
      */
     private String login(String username, String password) {
+        if (authCache.verify(username, password)) {
+            return "AUTH";
+        }
+
+        long askedAt = authCache.getVersion();
         List<String> messages = new ArrayList<String>();
         messages.add("LOGIN:"+username+":"+password);
         messages = messageStorageServer(messages);
@@ -109,6 +112,7 @@ public class LoginConnectionHandler extends ConnectionHandler {
             }
         }
 
+        authCache.put(username, password, askedAt);
         return "AUTH";
     }
 
@@ -131,6 +135,8 @@ public class LoginConnectionHandler extends ConnectionHandler {
             }
         }
 
+        //in case a user by this name was remembered from before their account was last changed.
+        authCache.invalidate(username);
         return "ADDED";
     }
 }
@@ -5,6 +5,8 @@ import java.net.ServerSocket;
 import java.net.Socket;
 
 public class LoginServer extends BaseServer {
+    private final AuthCache authCache;
+
     /**
      * Constructor for base class to set up the necessary internal variables.
      *
@@ -12,6 +14,7 @@ public class LoginServer extends BaseServer {
      */
     public LoginServer(int portNumber) {
         super(portNumber);
+        this.authCache = new AuthCache();
     }
 
     /**
@@ -31,6 +34,11 @@ public class LoginServer extends BaseServer {
                 return false;
             }
 
+            //look up the storage server now so that the first client does not have to wait for it.
+            storageServerResolver.start(communicationServerDetails);
+            //remember who has logged in, and keep up with the accounts which change.
+            authCache.start(this);
+
             //create server socket for client communication
             ServerSocket serverSocket = new ServerSocket(portNumber);
             //set a 60 second timeout on the server socket.
@@ -49,9 +57,8 @@ public class LoginServer extends BaseServer {
                     Socket socket = serverSocket.accept();
                     numConnections++;
 
-                    LoginConnectionHandler loginConnectionHandler = new LoginConnectionHandler(socket, communicationServerDetails, this);
-                    Thread connectionHandler = new Thread(loginConnectionHandler);
-                    connectionHandler.start();
+                    LoginConnectionHandler loginConnectionHandler = new LoginConnectionHandler(socket, authCache, communicationServerDetails, this);
+                    handleConnection(socket, loginConnectionHandler);
                     if (firstTime) {
                         firstTime = false;
                     }
@@ -84,29 +91,22 @@ public class LoginServer extends BaseServer {
             connectionState = ConnectionState.CONNECTED;
 
             //send necessary commands to communication server to tell it that we exist.
-            byte[] buffer = new byte[100];
-            int messageSize = 0;
             String messageReceived = null;
 
-            communicationServerOutput.write(MessageConverter.stringToByte("SERVER"));
-            communicationServerOutput.flush();
+            MessageConverter.writeMessage(communicationServerOutput, "SERVER");
 
-            communicationServerOutput.write(MessageConverter.stringToByte("SERVERTYPE:LOGIN:" + portNumber));
-            communicationServerOutput.flush();
+            MessageConverter.writeMessage(communicationServerOutput, "SERVERTYPE:LOGIN:" + portNumber);
 
-            messageSize = communicationServerInput.read(buffer);
-            messageReceived = MessageConverter.byteToString(buffer, messageSize);
+            messageReceived = MessageConverter.readMessage(communicationServerInput);
 
             if (!messageReceived.equals("TYPESTORED")) {
                 System.out.println("Communication server was unable to recognise this server - shutting down.");
                 return false;
             }
 
-            communicationServerOutput.write(MessageConverter.stringToByte("DISCONNECT"));
-            communicationServerOutput.flush();
+            MessageConverter.writeMessage(communicationServerOutput, "DISCONNECT");
 
-            messageSize = communicationServerInput.read(buffer);
-            messageReceived = MessageConverter.byteToString(buffer, messageSize);
+            messageReceived = MessageConverter.readMessage(communicationServerInput);
 
             if (!messageReceived.equals("DISCONNECT")) {
                 System.out.println("Unable to disconnect properly from communication server - shutting down.");
@@ -1,11 +1,28 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
 
 /**
  * Allows for the conversion of various data types to bytes to send over the network.
  *
+ * Messages are sent as frames so that a message is always read back whole, no matter how TCP splits or joins the
+ * writes. Each frame is a 4 byte big endian payload length, a 1 byte opcode (see {@link MessageType}) and the payload.
+ *
  * @author Bradley Davis
  */
 public class MessageConverter {
+    public static final int HEADER_SIZE = 5;
+    public static final int MAX_FRAME_SIZE = 1024 * 1024;
+    public static final int FILE_CHUNK_SIZE = 64 * 1024;
+
     /**
      * This method converts a byte array to an UTF 8 string and converts any characters that aren't in the character set
      * to a standard character that is in the set.
@@ -43,4 +60,270 @@ public class MessageConverter {
 
         return s.getBytes(StandardCharsets.UTF_8);
     }
+
+    /**
+     * Writes a text message to the stream as a single frame and flushes it.
+     *
+     * @param out the stream to write the message to.
+     * @param message the message to be sent.
+     * @throws IOException if the stream could not be written to.
+     */
+    public static void writeMessage(DataOutputStream out, String message) throws IOException {
+        byte[] payload = stringToByte(message);
+        writeFrame(out, MessageType.TEXT, payload, 0, payload.length);
+    }
+
+    /**
+     * Writes a frame to the stream and flushes it. The header and payload are written together so that small frames
+     * go out in a single segment.
+     *
+     * @param out the stream to write the frame to.
+     * @param type the type of the frame.
+     * @param payload the buffer holding the payload.
+     * @param offset the position in the buffer that the payload starts at.
+     * @param length the number of payload bytes to send.
+     * @throws IOException if the stream could not be written to.
+     */
+    public static void writeFrame(DataOutputStream out, MessageType type, byte[] payload, int offset, int length) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + length);
+        frame.putInt(length);
+        frame.put(type.getOpcode());
+        frame.put(payload, offset, length);
+        out.write(frame.array(), 0, frame.position());
+        out.flush();
+    }
+
+    /**
+     * Writes a frame with no payload to the stream, such as the END frame which follows the lines sent for SONGLIST, CHANGES and ACCOUNTCHANGES.
+     *
+     * @param out the stream to write the frame to.
+     * @param type the type of the frame.
+     * @throws IOException if the stream could not be written to.
+     */
+    public static void writeFrame(DataOutputStream out, MessageType type) throws IOException {
+        writeFrame(out, type, new byte[0], 0, 0);
+    }
+
+    /**
+     * Writes a song to the socket: a SONG:[length]:[checksum] message followed by exactly that many raw bytes.
+     *
+     * @param socket the socket to send the song on.
+     * @param out the stream for the socket.
+     * @param song the song to send.
+     * @param checksum the CRC32 of the song.
+     * @throws IOException if the file could not be read or the socket could not be written to.
+     */
+    public static void writeSong(Socket socket, DataOutputStream out, FileChannel song, long checksum) throws IOException {
+        long length = song.size();
+        writeMessage(out, "SONG:" + length + ":" + SongChecksums.format(checksum));
+        writeFileRange(socket, out, song, 0, length);
+    }
+
+    /**
+     * Writes part of a song to the socket: a SONG:[length]:[checksum]:[offset]:[total] message followed by exactly
+     * [length] raw bytes starting [offset] bytes into the song. The checksum is for the whole song, so that whoever
+     * puts the parts back together can check the result.
+     *
+     * @param socket the socket to send the song on.
+     * @param out the stream for the socket.
+     * @param song the song to send.
+     * @param checksum the CRC32 of the whole song.
+     * @param range the part of the song to send.
+     * @throws IOException if the file could not be read or the socket could not be written to.
+     */
+    public static void writeSong(Socket socket, DataOutputStream out, FileChannel song, long checksum, SongRange range) throws IOException {
+        writeMessage(out, "SONG:" + range.getLength() + ":" + SongChecksums.format(checksum) + ":" + range.getOffset() + ":" + song.size());
+        writeFileRange(socket, out, song, range.getOffset(), range.getLength());
+    }
+
+    /**
+     * Writes a song which is already in memory to the socket: a SONG:[length]:[checksum] message followed by exactly
+     * that many raw bytes.
+     *
+     * @param socket the socket to send the song on.
+     * @param out the stream for the socket.
+     * @param song the song to send, from its position to its limit. The position is moved to the limit.
+     * @param checksum the CRC32 of the song.
+     * @throws IOException if the socket could not be written to.
+     */
+    public static void writeSong(Socket socket, DataOutputStream out, ByteBuffer song, long checksum) throws IOException {
+        writeMessage(out, "SONG:" + song.remaining() + ":" + SongChecksums.format(checksum));
+        writeBuffer(socket, out, song);
+    }
+
+    /**
+     * Writes part of a song which is already in memory to the socket, in the same way as for a song in a file.
+     *
+     * @param socket the socket to send the song on.
+     * @param out the stream for the socket.
+     * @param song the whole song, starting at position 0. The position and limit are changed.
+     * @param checksum the CRC32 of the whole song.
+     * @param range the part of the song to send.
+     * @throws IOException if the socket could not be written to.
+     */
+    public static void writeSong(Socket socket, DataOutputStream out, ByteBuffer song, long checksum, SongRange range) throws IOException {
+        writeMessage(out, "SONG:" + range.getLength() + ":" + SongChecksums.format(checksum) + ":" + range.getOffset() + ":" + song.capacity());
+        song.limit((int) (range.getOffset() + range.getLength()));
+        song.position((int) range.getOffset());
+        writeBuffer(socket, out, song);
+    }
+
+    /**
+     * Writes raw bytes from a buffer to the socket. Where the socket has a channel the buffer is written straight to
+     * it, otherwise the bytes are copied through a heap buffer.
+     *
+     * @param socket the socket to send the bytes on.
+     * @param out the stream for the socket.
+     * @param bytes the bytes to send, from the position to the limit.
+     * @throws IOException if the socket could not be written to.
+     */
+    private static void writeBuffer(Socket socket, DataOutputStream out, ByteBuffer bytes) throws IOException {
+        SocketChannel channel = socket.getChannel();
+        if (channel != null) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            return;
+        }
+
+        byte[] chunk = new byte[FILE_CHUNK_SIZE];
+        while (bytes.hasRemaining()) {
+            int amount = Math.min(chunk.length, bytes.remaining());
+            bytes.get(chunk, 0, amount);
+            out.write(chunk, 0, amount);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes raw bytes from a file to the socket, reading from the given position without moving the file's position.
+     *
+     * Where the socket has a channel the file is handed to the kernel with {@link FileChannel#transferTo} so the bytes
+     * never get copied through the heap. Otherwise they are copied through a buffer.
+     *
+     * @param socket the socket to send the bytes on.
+     * @param out the stream for the socket.
+     * @param file the file to send from.
+     * @param offset the position in the file to start from.
+     * @param length the number of bytes to send.
+     * @throws IOException if the file could not be read or the socket could not be written to.
+     */
+    public static void writeFileRange(Socket socket, DataOutputStream out, FileChannel file, long offset, long length) throws IOException {
+        SocketChannel channel = socket.getChannel();
+        long position = offset;
+        long end = offset + length;
+
+        if (channel == null) {
+            ByteBuffer chunk = ByteBuffer.allocate(FILE_CHUNK_SIZE);
+            while (position < end) {
+                chunk.clear();
+                chunk.limit((int) Math.min(FILE_CHUNK_SIZE, end - position));
+                int amountRead = file.read(chunk, position);
+                if (amountRead == -1) {
+                    throw new IOException("File shrank while it was being sent.");
+                }
+                out.write(chunk.array(), 0, amountRead);
+                position += amountRead;
+            }
+            out.flush();
+            return;
+        }
+
+        //transferTo may send less than we asked for, so keep going until the whole range has gone.
+        while (position < end) {
+            long sent = file.transferTo(position, end - position, channel);
+            if (sent <= 0 && position >= file.size()) {
+                throw new IOException("File shrank while it was being sent.");
+            }
+            position += sent;
+        }
+    }
+
+    /**
+     * Reads exactly the given number of raw bytes, such as the body of a song, from the stream into a file.
+     *
+     * @param in the stream to read the bytes from.
+     * @param out the file to write the bytes to.
+     * @param length the number of bytes to read.
+     * @return the CRC32 of the bytes which were read.
+     * @throws IOException if the stream closed early or the file could not be written to.
+     */
+    public static long readFile(DataInputStream in, OutputStream out, long length) throws IOException {
+        return readFile(in, out, length, null);
+    }
+
+    /**
+     * Reads exactly the given number of raw bytes from the stream into a file, reporting how many have been written so
+     * far after every chunk so that someone else can read the file while it is still arriving.
+     *
+     * @param in the stream to read the bytes from.
+     * @param out the file to write the bytes to.
+     * @param length the number of bytes to read.
+     * @param progress told how many bytes have been written so far, or null.
+     * @return the CRC32 of the bytes which were read.
+     * @throws IOException if the stream closed early or the file could not be written to.
+     */
+    public static long readFile(DataInputStream in, OutputStream out, long length, LongConsumer progress) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[FILE_CHUNK_SIZE];
+        long remaining = length;
+
+        while (remaining > 0) {
+            int amountRead = in.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+            if (amountRead == -1) {
+                throw new IOException("Stream closed with " + remaining + " bytes of the file still to come.");
+            }
+            out.write(chunk, 0, amountRead);
+            crc.update(chunk, 0, amountRead);
+            remaining -= amountRead;
+            if (progress != null) {
+                progress.accept(length - remaining);
+            }
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * Reads a single whole frame from the stream, blocking until all of it has arrived.
+     *
+     * @param in the stream to read the frame from.
+     * @return the frame that was read.
+     * @throws IOException if the stream closed part way through a frame or the frame was malformed.
+     */
+    public static Frame readFrame(DataInputStream in) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        in.readFully(header);
+        ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+
+        int length = headerBuffer.getInt();
+        byte opcode = headerBuffer.get();
+        MessageType type = MessageType.fromOpcode(opcode);
+
+        if (type == null) {
+            throw new IOException("Unknown opcode received: " + opcode);
+        }
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Frame length out of range: " + length);
+        }
+
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(type, payload);
+    }
+
+    /**
+     * Reads a single text message from the stream.
+     *
+     * @param in the stream to read the message from.
+     * @return the message that was read.
+     * @throws IOException if the stream closed part way through a frame or the frame was not a text frame.
+     */
+    public static String readMessage(DataInputStream in) throws IOException {
+        Frame frame = readFrame(in);
+        if (frame.getType() != MessageType.TEXT) {
+            throw new IOException("Expected a text frame but received " + frame.getType() + ".");
+        }
+        return frame.getText();
+    }
 }
@@ -0,0 +1,416 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Keeps track of the songs in a streaming server's MusicCache directory and keeps it within a size budget.
+ *
+ * Every time a cached song is asked for it is marked as used, and once the songs in the cache add up to more than the
+ * budget the least useful are deleted. The budget is picked with the "cache.bytes" system property, and which songs
+ * are least useful with the "cache.policy" system property:
+ * "lru" drops the songs which have gone longest without being played (the default) and
+ * "lfu" drops the songs which have been played the fewest times, oldest first where there is a tie.
+ *
+ * Use is only tracked in memory, as touching the files would make every cached checksum look out of date. After a
+ * restart songs start off in the order they were fetched.
+ *
+ * Only one fetch of a song from the storage server happens at a time, on its own thread. Anyone else missing the same
+ * song follows that fetch rather than starting their own, so a popular song is only downloaded, and written to the
+ * cache, once.
+ *
+ * @author Bradley Davis
+ */
+public class SongCache {
+    public static final String PARTIAL_SUFFIX = ".part";
+    private static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+    private static final long REPORT_INTERVAL = 60000;
+    private static final long MAX_PARTIAL_AGE = 24 * 60 * 60 * 1000;
+    private static final double PREFETCH_FILL = 0.9;
+
+    private final File directory;
+    private final long maxBytes;
+    private final boolean leastFrequent;
+    private final LinkedHashMap<String, CachedSong> songs;
+    private final Map<String, SongFetch> fetches;
+    private final HotSongTier hotTier;
+    private long usedBytes;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+    private final AtomicLong evictedBytes;
+    private final AtomicLong coalesced;
+    private final AtomicLong prefetched;
+    private final AtomicLong prefetchHits;
+    private final AtomicLong prefetchWasted;
+
+    /**
+     * Constructor which reads the system properties. The cache is empty until {@link #load()} is called.
+     *
+     * @param directory the directory holding the cached songs.
+     */
+    public SongCache(String directory) {
+        this.directory = new File(directory);
+        this.maxBytes = readMaxBytes();
+        this.songs = new LinkedHashMap<String, CachedSong>(16, 0.75f, true);
+        this.fetches = new HashMap<String, SongFetch>();
+        this.hotTier = new HotSongTier();
+        this.usedBytes = 0;
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+        this.evictions = new AtomicLong(0);
+        this.evictedBytes = new AtomicLong(0);
+        this.coalesced = new AtomicLong(0);
+        this.prefetched = new AtomicLong(0);
+        this.prefetchHits = new AtomicLong(0);
+        this.prefetchWasted = new AtomicLong(0);
+
+        String policy = System.getProperty("cache.policy", "lru").toLowerCase();
+        if (!policy.equals("lru") && !policy.equals("lfu")) {
+            System.out.println("Unknown cache.policy " + policy + " - resorting to lru.");
+            policy = "lru";
+        }
+        this.leastFrequent = policy.equals("lfu");
+    }
+
+    /**
+     * Rebuilds the cache from the songs already in the directory, oldest first, and trims it down to the budget.
+     *
+     * Anything left behind by a fetch which never finished is cleaned up first. Songs only ever reach their place in
+     * the cache once they have been checked, so an empty song can only be left over from before that was the case.
+     * Partial files are kept so that the fetch can carry on from where it stopped, unless they are too old to be
+     * worth carrying on with or the song has since been fetched in full.
+     */
+    public synchronized void load() {
+        songs.clear();
+        usedBytes = 0;
+
+        File[] files = directory.listFiles();
+        List<File> found = new ArrayList<File>();
+        int removed = 0;
+        if (files != null) {
+            long oldestPartial = System.currentTimeMillis() - MAX_PARTIAL_AGE;
+            for (File file : files) {
+                if (!file.isFile()) {
+                    continue;
+                }
+
+                String name = file.getName();
+                boolean stale;
+                if (name.endsWith(PARTIAL_SUFFIX)) {
+                    File complete = new File(directory, name.substring(0, name.length() - PARTIAL_SUFFIX.length()));
+                    stale = file.lastModified() < oldestPartial || complete.isFile();
+                }
+                else {
+                    stale = file.length() == 0;
+                }
+
+                if (stale) {
+                    if (file.delete()) {
+                        removed++;
+                    }
+                }
+                else if (!name.endsWith(PARTIAL_SUFFIX)) {
+                    found.add(file);
+                }
+            }
+        }
+
+        if (removed > 0) {
+            System.out.println("Removed " + removed + " unfinished songs from the cache.");
+        }
+
+        found.sort(Comparator.comparingLong(File::lastModified));
+        for (File file : found) {
+            songs.put(file.getName(), new CachedSong(file.length()));
+            usedBytes += file.length();
+        }
+
+        evict(null);
+        System.out.println("Song cache holding " + songs.size() + " songs (" + usedBytes + " of " + maxBytes + " bytes).");
+        startReporting();
+    }
+
+    /**
+     * Checks whether a song is in the cache and marks it as used if it is.
+     *
+     * @param song the title of the song.
+     * @return whether the song is in the cache.
+     */
+    public boolean lookup(String song) {
+        File file = new File(directory, song);
+        long uses;
+        synchronized (this) {
+            if (!file.isFile()) {
+                //the file may have been removed behind our back.
+                CachedSong stale = songs.remove(song);
+                if (stale != null) {
+                    usedBytes -= stale.size;
+                    hotTier.remove(song);
+                }
+                misses.incrementAndGet();
+                return false;
+            }
+
+            CachedSong cached = songs.get(song);
+            if (cached == null) {
+                //the file was put there by something else, so start tracking it.
+                cached = new CachedSong(file.length());
+                songs.put(song, cached);
+                usedBytes += cached.size;
+            }
+            cached.uses++;
+            if (cached.prefetched) {
+                //someone has asked for a song which was fetched before they did.
+                cached.prefetched = false;
+                prefetchHits.incrementAndGet();
+            }
+            uses = cached.uses;
+            hits.incrementAndGet();
+        }
+
+        //mapping a song which has just become hot takes a while, so it is done without holding up the rest of the cache.
+        if (hotTier.used(song, file, uses)) {
+            synchronized (this) {
+                if (!songs.containsKey(song)) {
+                    //the song was evicted while it was being mapped.
+                    hotTier.remove(song);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets a song from memory if it is played often enough to be kept there.
+     *
+     * @param song the title of the song.
+     * @return the song, or null if it should be read from the file.
+     */
+    public HotSongTier.HotSong getHot(String song) {
+        return hotTier.get(song);
+    }
+
+    /**
+     * Checks whether a song is in the cache without counting it as used, such as when deciding what to prefetch.
+     *
+     * @param song the title of the song.
+     * @return whether the song is in the cache or being fetched into it.
+     */
+    public synchronized boolean contains(String song) {
+        return songs.containsKey(song) || fetches.containsKey(song);
+    }
+
+    /**
+     * Checks whether there is room in the budget to fetch songs before anyone has asked for them. Some room is always
+     * left, so that prefetching does not push out songs which are being played.
+     *
+     * @return whether songs can be prefetched.
+     */
+    public synchronized boolean hasRoomToPrefetch() {
+        return usedBytes < maxBytes * PREFETCH_FILL;
+    }
+
+    /**
+     * Adds a song which has just been fetched into the directory, making room for it if the cache is over budget.
+     *
+     * @param song the title of the song.
+     * @param prefetch whether the song was fetched before anyone asked for it.
+     */
+    public synchronized void added(String song, boolean prefetch) {
+        long size = new File(directory, song).length();
+        CachedSong cached = new CachedSong(size);
+        cached.prefetched = prefetch;
+        if (prefetch) {
+            prefetched.incrementAndGet();
+        }
+
+        CachedSong previous = songs.put(song, cached);
+        if (previous != null) {
+            usedBytes -= previous.size;
+        }
+        usedBytes += size;
+
+        evict(song);
+    }
+
+    /**
+     * Starts fetching a song into the cache on its own thread, unless it is already being fetched, in which case that
+     * fetch is joined instead.
+     *
+     * @param song the title of the song.
+     * @param fetcher fetches the song into the cache, reporting progress to the fetch it is given, and returns whether
+     *                it worked. Only called if no other fetch of the song is running.
+     * @return the fetch, which can be followed as the song arrives or waited on.
+     */
+    public SongFetch fetch(String song, Predicate<SongFetch> fetcher) {
+        SongFetch fetch;
+        synchronized (this) {
+            fetch = fetches.get(song);
+            if (fetch != null) {
+                coalesced.incrementAndGet();
+                return fetch;
+            }
+            fetch = new SongFetch(new File(directory, song + PARTIAL_SUFFIX));
+            fetches.put(song, fetch);
+        }
+
+        SongFetch started = fetch;
+        Thread fetcherThread = new Thread(() -> {
+            boolean fetched = false;
+            try {
+                //a fetch may have finished between the caller missing the song and us getting here.
+                fetched = new File(directory, song).isFile() || fetcher.test(started);
+            }
+            finally {
+                synchronized (this) {
+                    fetches.remove(song);
+                }
+                started.finish(fetched);
+            }
+        }, "SongCache-fetch");
+        fetcherThread.setDaemon(true);
+        fetcherThread.start();
+        return fetch;
+    }
+
+    /**
+     * Method to get the counters for the cache, for logging.
+     *
+     * @return the counters as a single line.
+     */
+    public synchronized String getMetrics() {
+        return "songs=" + songs.size()
+                + " bytes=" + usedBytes + "/" + maxBytes
+                + " hits=" + hits.get()
+                + " misses=" + misses.get()
+                + " evictions=" + evictions.get()
+                + " evictedBytes=" + evictedBytes.get()
+                + " coalesced=" + coalesced.get()
+                + " prefetched=" + prefetched.get()
+                + " prefetchHits=" + prefetchHits.get()
+                + " prefetchWasted=" + prefetchWasted.get()
+                + " " + hotTier.getMetrics();
+    }
+
+    /**
+     * Deletes songs until the cache is within its budget.
+     *
+     * @param keep a song which must not be deleted, such as the one which is about to be played, or null.
+     */
+    private void evict(String keep) {
+        while (usedBytes > maxBytes) {
+            String victim = leastFrequent ? leastFrequentlyUsed(keep) : leastRecentlyUsed(keep);
+            if (victim == null) {
+                return;
+            }
+
+            CachedSong cached = songs.remove(victim);
+            hotTier.remove(victim);
+            File file = new File(directory, victim);
+            if (file.exists() && !file.delete()) {
+                //most likely still being sent to a client on a system which will not delete open files, try again later.
+                songs.put(victim, cached);
+                return;
+            }
+
+            usedBytes -= cached.size;
+            evictions.incrementAndGet();
+            evictedBytes.addAndGet(cached.size);
+            if (cached.prefetched) {
+                prefetchWasted.incrementAndGet();
+            }
+        }
+    }
+
+    private String leastRecentlyUsed(String keep) {
+        //songs are kept in access order, so the first one is the least recently used.
+        Iterator<String> iterator = songs.keySet().iterator();
+        while (iterator.hasNext()) {
+            String song = iterator.next();
+            if (!song.equals(keep)) {
+                return song;
+            }
+        }
+        return null;
+    }
+
+    private String leastFrequentlyUsed(String keep) {
+        String victim = null;
+        long fewestUses = Long.MAX_VALUE;
+        //walking in access order means the oldest song wins a tie.
+        for (Map.Entry<String, CachedSong> entry : songs.entrySet()) {
+            if (entry.getValue().uses < fewestUses && !entry.getKey().equals(keep)) {
+                victim = entry.getKey();
+                fewestUses = entry.getValue().uses;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Starts a background thread which logs the counters whenever they have changed.
+     */
+    private void startReporting() {
+        Thread reporter = new Thread(() -> {
+            String lastMetrics = "";
+            while (true) {
+                try {
+                    Thread.sleep(REPORT_INTERVAL);
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+
+                String metrics = getMetrics();
+                if (!metrics.equals(lastMetrics)) {
+                    System.out.println("Song cache metrics: " + metrics);
+                    lastMetrics = metrics;
+                }
+            }
+        }, "SongCache-metrics");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    private static long readMaxBytes() {
+        String bytes = System.getProperty("cache.bytes");
+        if (bytes == null) {
+            return DEFAULT_MAX_BYTES;
+        }
+
+        try {
+            long parsed = Long.parseLong(bytes);
+            if (parsed > 0) {
+                return parsed;
+            }
+        }
+        catch (NumberFormatException nfe) {
+            //fall through to the default below.
+        }
+
+        System.out.println("Invalid cache.bytes provided - resorting to " + DEFAULT_MAX_BYTES + ".");
+        return DEFAULT_MAX_BYTES;
+    }
+
+    /**
+     * What the cache knows about a single song.
+     */
+    private static class CachedSong {
+        private final long size;
+        private long uses;
+        private boolean prefetched;
+
+        private CachedSong(long size) {
+            this.size = size;
+            this.uses = 0;
+            this.prefetched = false;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Thread-safe copy of the storage server's song list, shared by every client of a streaming server.
+ *
+ * Rather than fetching the whole list for every request, the copy remembers which version of the storage server's
+ * catalog it holds and asks only for the changes since then. Even that is only done once the copy is a few seconds
+ * old, so most requests are answered without contacting the storage server at all.
+ *
+ * @author Bradley Davis
+ */
+public class SongCatalogCache {
+    private static final long REFRESH_INTERVAL = 5000;
+
+    private final TreeSet<String> songs;
+    private final SongSearchIndex searchIndex;
+    private volatile Snapshot snapshot;
+    private String source;
+    private volatile long lastRefreshed;
+
+    public SongCatalogCache() {
+        songs = new TreeSet<String>();
+        searchIndex = new SongSearchIndex();
+        snapshot = new Snapshot(Collections.<String>emptyList(), -1);
+        source = null;
+        lastRefreshed = 0;
+    }
+
+    /**
+     * Checks whether the copy is old enough that the storage server should be asked for changes.
+     *
+     * @return whether the copy should be refreshed.
+     */
+    public boolean needsRefresh() {
+        return System.currentTimeMillis() - lastRefreshed >= REFRESH_INTERVAL;
+    }
+
+    /**
+     * Brings the copy up to date with the storage server. If another handler has just done this, nothing is sent.
+     *
+     * @param storageServer the connection to the storage server to ask.
+     * @throws IOException if the storage server could not be asked, in which case the copy is left as it was.
+     */
+    public synchronized void refresh(StorageConnection storageServer) throws IOException {
+        if (!needsRefresh()) {
+            return;
+        }
+
+        //versions only mean something to the storage server which gave them out.
+        ServerConnectionDetails details = storageServer.getStorageServer();
+        String askedSource = details.getIpAddress() + ":" + details.getPortNumber();
+        long since = askedSource.equals(source) ? snapshot.version : -1;
+
+        storageServer.writeMessage("CHANGES:" + since);
+
+        //read everything before applying any of it, so a dropped connection cannot leave the copy half updated.
+        //changes are packed into messages one per line.
+        String[] header = storageServer.readMessage().split(":");
+        List<String> changes = new ArrayList<String>();
+        Frame frame = storageServer.readFrame();
+        while (frame.getType() != MessageType.END) {
+            Collections.addAll(changes, frame.getText().split("\n"));
+            frame = storageServer.readFrame();
+        }
+
+        long newVersion;
+        try {
+            newVersion = Long.parseLong(header[1]);
+        }
+        catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Unexpected reply to CHANGES: " + String.join(":", header));
+        }
+
+        if (header[0].equals("RESET")) {
+            songs.clear();
+        }
+        else if (!header[0].equals("VERSION")) {
+            throw new IOException("Unexpected reply to CHANGES: " + String.join(":", header));
+        }
+
+        boolean reset = header[0].equals("RESET");
+        for (String change : changes) {
+            String song = change.substring(change.indexOf(':') + 1);
+            if (change.startsWith("ADDED:")) {
+                songs.add(song);
+                if (!reset) {
+                    searchIndex.add(song);
+                }
+            }
+            else if (change.startsWith("REMOVED:")) {
+                songs.remove(song);
+                if (!reset) {
+                    searchIndex.remove(song);
+                }
+            }
+        }
+
+        if (reset) {
+            //only the songs which differ from what was there before get re-indexed.
+            searchIndex.sync(songs);
+        }
+        List<String> current = snapshot.songs;
+        if (reset || changes.size() > 0) {
+            current = Collections.unmodifiableList(new ArrayList<String>(songs));
+        }
+        snapshot = new Snapshot(current, newVersion);
+        source = askedSource;
+        lastRefreshed = System.currentTimeMillis();
+    }
+
+    /**
+     * Builds the reply for one page of the copy, so that the songs and version in it always match.
+     *
+     * @param page the page asked for.
+     * @return the reply, or null if the page starts past the end of the copy.
+     */
+    public String getPage(SongPage page) {
+        Snapshot current = snapshot;
+        return page.build(current.songs, current.version);
+    }
+
+    /**
+     * Gets every song in the copy.
+     *
+     * @return an unmodifiable, sorted list of song titles, which is empty if the storage server has not been asked yet.
+     */
+    public List<String> getSongs() {
+        return snapshot.songs;
+    }
+
+    /**
+     * Finds every song in the copy whose title contains the search term.
+     *
+     * @param term the term to search for.
+     * @return the titles which matched, best match first.
+     */
+    public List<String> search(String term) {
+        return searchIndex.search(term);
+    }
+
+    /**
+     * The songs and the version they came from, kept together so that readers never see one without the other.
+     */
+    private static class Snapshot {
+        private final List<String> songs;
+        private final long version;
+
+        private Snapshot(List<String> songs, long version) {
+            this.songs = songs;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A song which is being fetched from the storage server into the cache.
+ *
+ * The fetch writes the song to a partial file and reports how far it has got, so that clients can be sent the song
+ * while it is still arriving by reading the partial file just behind the fetch. If the fetch has to throw away what it
+ * had written, anyone reading behind it is told that the song they were following is gone. Each time that happens
+ * the fetch starts a new generation, so that readers who joined afterwards are not affected.
+ *
+ * @author Bradley Davis
+ */
+public class SongFetch {
+    private final File partialFile;
+    private File file;
+    private long length;
+    private long checksum;
+    private long written;
+    private int generation;
+    private boolean finished;
+    private boolean fetched;
+    private volatile boolean followed;
+
+    /**
+     * Constructor which sets all internal class variables.
+     *
+     * @param partialFile the file the song is being written to.
+     */
+    public SongFetch(File partialFile) {
+        this.partialFile = partialFile;
+        this.file = partialFile;
+        this.length = -1;
+        this.written = 0;
+        this.generation = 0;
+        this.finished = false;
+        this.fetched = false;
+        this.followed = false;
+    }
+
+    public synchronized long getLength() {
+        return length;
+    }
+
+    public synchronized long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Checks whether anyone is waiting on the fetch, such as a client who asked for the song.
+     *
+     * @return whether the fetch is being followed or waited on.
+     */
+    public boolean isFollowed() {
+        return followed;
+    }
+
+    /**
+     * Called by the fetch once the storage server has said how big the song is and the partial file is open.
+     *
+     * @param length the size of the whole song.
+     * @param checksum the CRC32 of the whole song.
+     * @param written how much of the song is already in the partial file.
+     */
+    public synchronized void started(long length, long checksum, long written) {
+        if (written < this.written) {
+            //the partial file was thrown away, so anyone part way through reading it has lost their place.
+            generation++;
+        }
+        this.length = length;
+        this.checksum = checksum;
+        this.written = written;
+        notifyAll();
+    }
+
+    /**
+     * Called by the fetch whenever more of the song has been written to the partial file.
+     *
+     * @param written how much of the song is now in the partial file.
+     */
+    public synchronized void progress(long written) {
+        this.written = written;
+        notifyAll();
+    }
+
+    /**
+     * Called by the fetch whenever it throws the partial file away.
+     */
+    public synchronized void discarded() {
+        if (written > 0) {
+            generation++;
+        }
+        written = 0;
+        notifyAll();
+    }
+
+    /**
+     * Called by the fetch once the whole song has arrived, to move it from the partial file to its place in the cache.
+     * This is done here so that nobody can be opening the partial file just as it is moved.
+     *
+     * @param cached where the song should be kept.
+     * @return whether the song was moved.
+     */
+    public synchronized boolean moveTo(File cached) {
+        try {
+            //an atomic move means the song is either fully in place or not there at all, even if we crash part way.
+            Files.move(partialFile.toPath(), cached.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        file = cached;
+        return true;
+    }
+
+    /**
+     * Opens the song for reading, wherever it currently is. As the song is only ever moved, what has been read so far
+     * stays the same.
+     *
+     * @return the opened song.
+     * @throws IOException if the song could not be opened.
+     */
+    public synchronized FileChannel open() throws IOException {
+        return FileChannel.open(file.toPath());
+    }
+
+    /**
+     * Called once the fetch is over, whether or not it worked.
+     *
+     * @param fetched whether the song is now in the cache.
+     */
+    public synchronized void finish(boolean fetched) {
+        this.fetched = fetched;
+        this.finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits for the fetch to find out how big the song is.
+     *
+     * @return the generation to follow, or -1 if the fetch failed before getting that far.
+     */
+    public synchronized int awaitStart() {
+        followed = true;
+        while (length < 0 && !finished) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                return -1;
+            }
+        }
+        return length >= 0 && (!finished || fetched) ? generation : -1;
+    }
+
+    /**
+     * Waits for more of the song to be written than the caller has already read.
+     *
+     * @param read how much of the song the caller has already read.
+     * @param following the generation the caller got from {@link #awaitStart()}.
+     * @return how much of the song can now be read.
+     * @throws IOException if the fetch failed or threw away the bytes the caller was following.
+     */
+    public synchronized long awaitProgress(long read, int following) throws IOException {
+        while (written <= read && !finished && generation == following) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                throw new IOException("Interrupted while waiting for the song to arrive.");
+            }
+        }
+
+        if (generation != following || (finished && !fetched && written <= read)) {
+            throw new IOException("Fetching the song from the storage server failed part way through.");
+        }
+        return written;
+    }
+
+    /**
+     * Waits for the fetch to finish, for a client who wants the song.
+     *
+     * @return whether the song is now in the cache.
+     */
+    public synchronized boolean await() {
+        followed = true;
+        return awaitQuietly();
+    }
+
+    /**
+     * Waits for the fetch to finish without counting as someone following it, so that a fetch nobody else is waiting
+     * for, such as a prefetch, keeps to its limit.
+     *
+     * @return whether the song is now in the cache.
+     */
+    public synchronized boolean awaitQuietly() {
+        while (!finished) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return fetched;
+    }
+}
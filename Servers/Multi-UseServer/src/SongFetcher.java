@@ -0,0 +1,229 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fetches songs from the storage server into a streaming server's cache.
+ *
+ * The song is written to a partial file first, and if the transfer is cut off the next attempt asks the storage
+ * server for only the bytes which are still missing. Partial files are not counted in the cache's budget, so if every
+ * attempt fails the partial file is thrown away rather than left for a later fetch. A fetcher can be limited to a number of bytes a second, so that
+ * fetches nobody is waiting for do not take bandwidth from clients, but the limit is lifted as soon as a client starts
+ * following the fetch.
+ *
+ * @author Bradley Davis
+ */
+public class SongFetcher {
+    private static final int SONG_FETCH_ATTEMPTS = 3;
+
+    private final BaseServer parent;
+    private final String cachedStorage;
+    private final String fileSeparator;
+    private final SongCache songCache;
+    private final SongChecksums songChecksums;
+    private final long maxBytesPerSecond;
+    private final boolean prefetching;
+
+    /**
+     * Constructor which sets all internal class variables.
+     *
+     * @param parent the server, for its storage server and connections to it.
+     * @param cachedStorage the directory holding the cached songs.
+     * @param songCache the cache to add fetched songs to.
+     * @param maxBytesPerSecond the most bytes a second to fetch while nobody is following, or 0 for no limit.
+     * @param prefetching whether songs are being fetched before anyone has asked for them.
+     */
+    public SongFetcher(BaseServer parent, String cachedStorage, SongCache songCache, long maxBytesPerSecond, boolean prefetching) {
+        this.parent = parent;
+        this.cachedStorage = cachedStorage;
+        this.fileSeparator = System.getProperty("file.separator");
+        this.songCache = songCache;
+        this.songChecksums = SongChecksums.getInstance();
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.prefetching = prefetching;
+    }
+
+    /**
+     * Fetches a song from the storage server into the cache, reporting progress to the fetch so that clients can be
+     * sent the song as it arrives.
+     *
+     * @param toAdd the title of the song to fetch.
+     * @param fetch the fetch to report progress to.
+     * @return whether the song is now in the cache.
+     */
+    public boolean fetch(String toAdd, SongFetch fetch) {
+        String songPath = cachedStorage + fileSeparator + toAdd;
+        File partialFile = new File(songPath + SongCache.PARTIAL_SUFFIX);
+
+        for (int attempt = 0; attempt < SONG_FETCH_ATTEMPTS; attempt++) {
+            //a failed attempt forgets the storage server, so a later attempt carries on with another.
+            ServerConnectionDetails storageServer = parent.getStorageServerResolver().getStorageServer();
+            if (storageServer == null) {
+                break;
+            }
+
+            Long checksum = getSongPart(storageServer, toAdd, partialFile, fetch);
+            if (checksum != null) {
+                if (!fetch.moveTo(new File(songPath))) {
+                    partialFile.delete();
+                    fetch.discarded();
+                    return false;
+                }
+                songChecksums.putChecksum(songPath, checksum);
+                //a song a client was already waiting for does not count as prefetched.
+                songCache.added(toAdd, prefetching && !fetch.isFollowed());
+                return true;
+            }
+        }
+
+        //nobody may ask for the song again, and the cache would never clear up what we got.
+        if (partialFile.delete()) {
+            fetch.discarded();
+        }
+        return false;
+    }
+
+    /**
+     * Asks the storage server for whatever part of a song is missing from the partial file and appends it.
+     *
+     * @param myStorageServer the storage server to ask.
+     * @param toAdd the title of the song to fetch.
+     * @param partialFile the file holding what has been received so far.
+     * @param fetch the fetch to report progress to.
+     * @return the checksum of the song if the whole song has now been received and checked, otherwise null.
+     */
+    private Long getSongPart(ServerConnectionDetails myStorageServer, String toAdd, File partialFile, SongFetch fetch) {
+        StorageConnectionPool pool = parent.getStorageConnectionPool();
+        StorageConnection storageServer = null;
+        Long completeChecksum = null;
+        FileOutputStream outputStream = null;
+        long offset = partialFile.length();
+
+        try {
+            storageServer = pool.borrowForTransfer(myStorageServer);
+
+            if (offset == 0) {
+                storageServer.writeMessage("SONG:" + toAdd);
+            }
+            else {
+                storageServer.writeMessage("SONG:" + toAdd + ":" + offset);
+            }
+
+            //the storage server replies with SONG:[length]:[checksum], plus :[offset]:[total] when we asked for part of
+            //the song, followed by exactly [length] bytes. Otherwise it replies with an error.
+            String[] header = storageServer.readMessage().split(":");
+            if (header[0].equals("SONG") && (header.length == 3 || header.length == 5)) {
+                long length = Long.parseLong(header[1]);
+                long checksum = Long.parseLong(header[2], 16);
+                long replyOffset = header.length == 5 ? Long.parseLong(header[3]) : 0;
+
+                if (replyOffset != offset) {
+                    //we did not get what we asked for, so whatever we had is no use.
+                    offset = 0;
+                    replyOffset = 0;
+                    partialFile.delete();
+                    fetch.discarded();
+                }
+
+                long total = header.length == 5 ? Long.parseLong(header[4]) : length;
+                long startedAt = replyOffset;
+                long startTime = System.nanoTime();
+                outputStream = new FileOutputStream(partialFile, replyOffset > 0);
+                fetch.started(total, checksum, startedAt);
+                long receivedChecksum = MessageConverter.readFile(storageServer.getInputStream(), outputStream, length,
+                        received -> {
+                            fetch.progress(startedAt + received);
+                            throttle(fetch, received, startTime);
+                        });
+                if (startedAt + length == total) {
+                    //make sure the song is on disk before it is moved into place, so a crash cannot leave a damaged song in the cache.
+                    outputStream.getFD().sync();
+                }
+                outputStream.close();
+                outputStream = null;
+
+                if (partialFile.length() == total) {
+                    if (startedAt == 0) {
+                        //we received the whole song in one go, so we already know its checksum.
+                        if (receivedChecksum == checksum) {
+                            completeChecksum = checksum;
+                        }
+                    }
+                    else {
+                        FileChannel received = FileChannel.open(partialFile.toPath());
+                        try {
+                            if (SongChecksums.compute(received) == checksum) {
+                                completeChecksum = checksum;
+                            }
+                        }
+                        finally {
+                            received.close();
+                        }
+                    }
+                }
+
+                if (completeChecksum == null) {
+                    System.out.println("Checksum mismatch receiving " + toAdd + " - discarding it.");
+                    partialFile.delete();
+                    fetch.discarded();
+                }
+            }
+            else if (offset > 0) {
+                //the storage server would not give us the rest of the song, so start again next time.
+                partialFile.delete();
+                fetch.discarded();
+            }
+        }
+        catch (NumberFormatException e) {
+            //we cannot tell how much of the song is still to come, so the connection cannot be reused.
+            storageServer.markBroken();
+            partialFile.delete();
+            fetch.discarded();
+        }
+        catch (IOException e) {
+            //we died before our time, but we keep what we got so the next attempt can carry on from there.
+            if (storageServer != null) {
+                storageServer.markBroken();
+            }
+            parent.getStorageServerResolver().invalidate(myStorageServer);
+            System.out.println("Lost connection receiving " + toAdd + " after " + partialFile.length() + " bytes.");
+        }
+        finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            pool.release(storageServer);
+        }
+
+        return completeChecksum;
+    }
+
+    /**
+     * Sleeps for long enough to keep the fetch within its limit, unless there is no limit or a client is waiting.
+     *
+     * @param fetch the fetch being limited.
+     * @param received the number of bytes received so far.
+     * @param startTime when the bytes started arriving, from {@link System#nanoTime()}.
+     */
+    private void throttle(SongFetch fetch, long received, long startTime) {
+        if (maxBytesPerSecond <= 0 || fetch.isFollowed()) {
+            return;
+        }
+
+        long aheadMillis = received * 1000 / maxBytesPerSecond - (System.nanoTime() - startTime) / 1000000;
+        if (aheadMillis > 0) {
+            try {
+                Thread.sleep(aheadMillis);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The part of the song list asked for by a SONGLIST:[offset]:[limit] message, so that a large list can be fetched a
+ * page at a time instead of one message per song.
+ *
+ * @author Bradley Davis
+ */
+public class SongPage {
+    public static final int DEFAULT_LIMIT = 500;
+    public static final int MAX_LIMIT = 2000;
+    //keeps a page comfortably inside a single frame however long the titles are.
+    private static final int MAX_PAGE_BYTES = MessageConverter.MAX_FRAME_SIZE / 2;
+
+    private final int offset;
+    private final int limit;
+
+    /**
+     * Constructor which sets all internal class variables.
+     *
+     * @param offset the position in the list of the first song to send.
+     * @param limit the most songs to send.
+     */
+    public SongPage(int offset, int limit) {
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Checks whether a SONGLIST message asked for a page rather than the whole list.
+     *
+     * @param arguments the message split on ":".
+     * @return true if an offset was given.
+     */
+    public static boolean isPaged(String[] arguments) {
+        return arguments.length > 1;
+    }
+
+    /**
+     * Reads the page out of a SONGLIST:[offset]:[limit] message. The limit may be left off to get the default page
+     * size, and is cut down to {@link #MAX_LIMIT} if it is larger.
+     *
+     * @param arguments the message split on ":".
+     * @return the page asked for, or null if the page was not valid.
+     */
+    public static SongPage parse(String[] arguments) {
+        int offset;
+        int limit = DEFAULT_LIMIT;
+        try {
+            offset = Integer.parseInt(arguments[1]);
+            if (arguments.length > 2) {
+                limit = Integer.parseInt(arguments[2]);
+            }
+        }
+        catch (NumberFormatException nfe) {
+            return null;
+        }
+
+        if (offset < 0 || limit <= 0) {
+            return null;
+        }
+
+        return new SongPage(offset, Math.min(limit, MAX_LIMIT));
+    }
+
+    /**
+     * Builds the reply for this page: a PAGE:[offset]:[count]:[total]:[version] line followed by one song title per
+     * line. Fewer than the limit are sent if the titles would not fit in a single frame, so [count] should be used to
+     * work out where the next page starts.
+     *
+     * @param songs the full, sorted list of songs.
+     * @param version the version of the list, so that the pages can be checked to come from the same list.
+     * @return the reply, or null if the offset is past the end of the list.
+     */
+    public String build(List<String> songs, long version) {
+        if (offset > songs.size()) {
+            return null;
+        }
+
+        StringBuilder titles = new StringBuilder();
+        int bytes = 0;
+        int count = 0;
+        int end = (int) Math.min((long) offset + limit, songs.size());
+        for (int i = offset; i < end; i++) {
+            String song = songs.get(i);
+            int songBytes = song.getBytes(StandardCharsets.UTF_8).length + 1;
+            if (count > 0 && bytes + songBytes > MAX_PAGE_BYTES) {
+                break;
+            }
+            titles.append('\n').append(song);
+            bytes += songBytes;
+            count++;
+        }
+
+        return "PAGE:" + offset + ":" + count + ":" + songs.size() + ":" + version + titles;
+    }
+}
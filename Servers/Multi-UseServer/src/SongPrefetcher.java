@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fetches the songs people are playing into the cache before this server's clients ask for them, so that they can be
+ * sent straight from disk rather than waiting on the storage server.
+ *
+ * Every {@link #PREFETCH_INTERVAL} milliseconds the storage server is asked what is trending and what it recommends,
+ * and any of those songs which are not cached are fetched one at a time while there is room in the cache. Prefetches
+ * are limited to the number of bytes a second picked with the "prefetch.bytesPerSecond" system property, so they do not
+ * take bandwidth from clients, and the "prefetch" system property turns prefetching off when set to false.
+ *
+ * @author Bradley Davis
+ */
+public class SongPrefetcher {
+    private static final long PREFETCH_INTERVAL = 30000;
+    private static final long DEFAULT_BYTES_PER_SECOND = 1024 * 1024;
+
+    private final BaseServer parent;
+    private final SongCache songCache;
+    private final SongFetcher songFetcher;
+
+    /**
+     * Constructor which sets all internal class variables.
+     *
+     * @param parent the server, for its storage server and connections to it.
+     * @param cachedStorage the directory holding the cached songs.
+     * @param songCache the cache to prefetch songs into.
+     */
+    public SongPrefetcher(BaseServer parent, String cachedStorage, SongCache songCache) {
+        this.parent = parent;
+        this.songCache = songCache;
+        this.songFetcher = new SongFetcher(parent, cachedStorage, songCache, readBytesPerSecond(), true);
+    }
+
+    /**
+     * Starts prefetching on a background thread, unless prefetching has been turned off.
+     */
+    public void start() {
+        if (!Boolean.parseBoolean(System.getProperty("prefetch", "true"))) {
+            System.out.println("Prefetching turned off.");
+            return;
+        }
+
+        Thread prefetchThread = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(PREFETCH_INTERVAL);
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                prefetch();
+            }
+        }, "SongPrefetcher");
+        prefetchThread.setDaemon(true);
+        prefetchThread.start();
+    }
+
+    /**
+     * Fetches whichever of the trending and recommended songs are not cached yet, stopping once the cache is full.
+     */
+    private void prefetch() {
+        for (String song : getWantedSongs()) {
+            if (!songCache.hasRoomToPrefetch()) {
+                return;
+            }
+            if (songCache.contains(song)) {
+                continue;
+            }
+
+            //one at a time, so prefetching never takes more than its share of bandwidth. Waiting quietly keeps the limit
+            //on unless a client starts waiting for the song too.
+            songCache.fetch(song, fetch -> songFetcher.fetch(song, fetch)).awaitQuietly();
+        }
+    }
+
+    /**
+     * Asks the storage server which songs are being played the most.
+     *
+     * @return the trending songs followed by the recommendation, which is empty if the storage server could not be asked.
+     */
+    private List<String> getWantedSongs() {
+        List<String> wanted = new ArrayList<String>();
+        ServerConnectionDetails myStorageServer = parent.getStorageServerResolver().getStorageServer();
+        if (myStorageServer == null) {
+            return wanted;
+        }
+
+        StorageConnectionPool pool = parent.getStorageConnectionPool();
+        StorageConnection storageServer = null;
+        try {
+            storageServer = pool.borrow(myStorageServer);
+
+            storageServer.writeMessage("TRENDING");
+            String[] trending = storageServer.readMessage().split("\n");
+            if (trending[0].equals("TRENDING")) {
+                for (int i = 1; i < trending.length; i++) {
+                    wanted.add(trending[i]);
+                }
+            }
+
+            storageServer.writeMessage("RECOMMENDATION");
+            String recommendation = storageServer.readMessage();
+            if (recommendation.startsWith("RECOMMENDATION:")) {
+                String song = recommendation.substring("RECOMMENDATION:".length());
+                if (!song.startsWith("ERROR:") && !wanted.contains(song)) {
+                    wanted.add(song);
+                }
+            }
+        }
+        catch (IOException e) {
+            if (storageServer != null) {
+                storageServer.markBroken();
+            }
+            parent.getStorageServerResolver().invalidate(myStorageServer);
+            System.out.println("Unable to ask the storage server what to prefetch.");
+        }
+        finally {
+            pool.release(storageServer);
+        }
+
+        return wanted;
+    }
+
+    private static long readBytesPerSecond() {
+        String bytes = System.getProperty("prefetch.bytesPerSecond");
+        if (bytes == null) {
+            return DEFAULT_BYTES_PER_SECOND;
+        }
+
+        try {
+            long parsed = Long.parseLong(bytes);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        }
+        catch (NumberFormatException nfe) {
+            //fall through to the default below.
+        }
+
+        System.out.println("Invalid prefetch.bytesPerSecond provided - resorting to " + DEFAULT_BYTES_PER_SECOND + ".");
+        return DEFAULT_BYTES_PER_SECOND;
+    }
+}
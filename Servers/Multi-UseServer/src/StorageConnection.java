@@ -0,0 +1,192 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * A connection to a storage server which is kept open and shared out by the {@link StorageConnectionPool}.
+ *
+ * A handler which borrows a connection has it to itself until it is released, so messages and replies never get mixed
+ * up between handlers. If anything goes wrong part way through an exchange the connection must be marked as broken so
+ * that it is closed rather than handed to the next handler in an unknown state.
+ *
+ * A storage server which stops answering without closing the connection would otherwise leave a handler waiting
+ * forever, so a read which waits longer than {@link #READ_TIMEOUT} milliseconds fails as if the connection had died.
+ *
+ * @author Bradley Davis
+ */
+public class StorageConnection {
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final int HEARTBEAT_TIMEOUT = 2000;
+
+    private final ServerConnectionDetails storageServer;
+    private final Socket socket;
+    private final DataInputStream dataInputStream;
+    private final DataOutputStream dataOutputStream;
+    private volatile boolean broken;
+    private volatile long lastUsed;
+    private boolean transfer;
+
+    /**
+     * Constructor which opens the connection to the storage server.
+     *
+     * @param storageServer the storage server to connect to.
+     * @throws IOException if the storage server could not be connected to.
+     */
+    StorageConnection(ServerConnectionDetails storageServer) throws IOException {
+        this.storageServer = storageServer;
+        this.socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(storageServer.getIpAddress(), storageServer.getPortNumber()), CONNECT_TIMEOUT);
+            socket.setSoTimeout(READ_TIMEOUT);
+        }
+        catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        this.dataInputStream = new DataInputStream(socket.getInputStream());
+        this.dataOutputStream = new DataOutputStream(socket.getOutputStream());
+        this.broken = false;
+        this.lastUsed = System.currentTimeMillis();
+        this.transfer = false;
+    }
+
+    public ServerConnectionDetails getStorageServer() {
+        return storageServer;
+    }
+
+    public DataInputStream getInputStream() {
+        return dataInputStream;
+    }
+
+    public DataOutputStream getOutputStream() {
+        return dataOutputStream;
+    }
+
+    /**
+     * Sends a message to the storage server.
+     *
+     * @param message the message to send.
+     * @throws IOException if the connection has died.
+     */
+    public void writeMessage(String message) throws IOException {
+        lastUsed = System.currentTimeMillis();
+        MessageConverter.writeMessage(dataOutputStream, message);
+    }
+
+    /**
+     * Reads the next message sent by the storage server.
+     *
+     * @return the message that was read.
+     * @throws IOException if the connection has died.
+     */
+    public String readMessage() throws IOException {
+        String message = MessageConverter.readMessage(dataInputStream);
+        lastUsed = System.currentTimeMillis();
+        return message;
+    }
+
+    /**
+     * Reads the next frame sent by the storage server.
+     *
+     * @return the frame that was read.
+     * @throws IOException if the connection has died.
+     */
+    public Frame readFrame() throws IOException {
+        Frame frame = MessageConverter.readFrame(dataInputStream);
+        lastUsed = System.currentTimeMillis();
+        return frame;
+    }
+
+    /**
+     * Marks the connection as not safe to use again, so it will be closed when it is released.
+     */
+    public void markBroken() {
+        broken = true;
+    }
+
+    public boolean isBroken() {
+        return broken;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    boolean isTransfer() {
+        return transfer;
+    }
+
+    void setTransfer(boolean transfer) {
+        this.transfer = transfer;
+    }
+
+    /**
+     * Checks that the connection is still usable without sending anything. Nothing should ever arrive on an idle
+     * connection, so if something has it is either the storage server closing it or a reply we lost track of.
+     *
+     * @return whether the connection looks usable.
+     */
+    public boolean isOpen() {
+        if (broken || socket.isClosed()) {
+            return false;
+        }
+
+        try {
+            return dataInputStream.available() == 0;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks that the storage server is still answering on this connection. A heartbeat is answered straight away, so it
+     * is given much less time than other replies.
+     *
+     * @return whether the storage server answered.
+     */
+    public boolean heartbeat() {
+        try {
+            socket.setSoTimeout(HEARTBEAT_TIMEOUT);
+            writeMessage("HEARTBEAT");
+            boolean answered = readMessage().equals("HEARTBEAT");
+            socket.setSoTimeout(READ_TIMEOUT);
+            return answered;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Disconnects safely from the storage server and closes the connection.
+     */
+    public void close() {
+        ConnectionState storageServerConnectionState = ConnectionState.CONNECTED;
+        try {
+            if (!broken) {
+                MessageConverter.writeMessage(dataOutputStream, "DISCONNECT");
+                storageServerConnectionState = ConnectionState.DISCONNECTING; //this is set here as the storage server may close the socket before we process its reply.
+                MessageConverter.readMessage(dataInputStream);
+            }
+        }
+        catch (IOException e) {
+            if (storageServerConnectionState != ConnectionState.DISCONNECTING) {
+                System.out.println("Storage server connection died while disconnecting.");
+            }
+        }
+        finally {
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+                //we couldnt close the socket but we can ignore this.
+                e.printStackTrace();
+            }
+        }
+    }
+}
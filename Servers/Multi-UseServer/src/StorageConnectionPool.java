@@ -0,0 +1,203 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps open connections to the storage servers so that handlers do not need to set up a new connection, and do the
+ * DISCONNECT handshake, for every request.
+ *
+ * There is one pool per server process. The number of connections to each storage server is bounded, and a handler
+ * which wants one when they are all in use waits for one to be released. Idle connections are checked before they are
+ * handed out and closed if they have been idle for too long.
+ *
+ * Song transfers hold their connection for as long as the song takes to arrive, so they are counted separately from
+ * other requests and limited to {@link #MAX_TRANSFERS} at a time. However many songs are being fetched, logins and
+ * song lists still have all of their own connections to use.
+ *
+ * @author Bradley Davis
+ */
+public class StorageConnectionPool {
+    private static final int MAX_CONNECTIONS = 16;
+    private static final int MAX_TRANSFERS = 8;
+    private static final long BORROW_TIMEOUT = 5000;
+    private static final long HEALTH_CHECK_AFTER = 10000;
+    private static final long IDLE_TIMEOUT = 60000;
+
+    private final Map<String, Pool> pools;
+
+    public StorageConnectionPool() {
+        pools = new ConcurrentHashMap<String, Pool>();
+
+        Thread reaper = new Thread(this::closeIdleConnections, "StorageConnectionPool-reaper");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    /**
+     * Borrows a connection to a storage server, opening a new one if none are idle.
+     *
+     * @param storageServer the storage server to connect to.
+     * @return a connection which the caller has to itself until it is released.
+     * @throws IOException if no connection could be made or all connections stayed in use for too long.
+     */
+    public StorageConnection borrow(ServerConnectionDetails storageServer) throws IOException {
+        return borrow(storageServer, false);
+    }
+
+    /**
+     * Borrows a connection to a storage server to fetch a song over, opening a new one if none are idle.
+     *
+     * @param storageServer the storage server to connect to.
+     * @return a connection which the caller has to itself until it is released.
+     * @throws IOException if no connection could be made or all transfers stayed in progress for too long.
+     */
+    public StorageConnection borrowForTransfer(ServerConnectionDetails storageServer) throws IOException {
+        return borrow(storageServer, true);
+    }
+
+    private StorageConnection borrow(ServerConnectionDetails storageServer, boolean transfer) throws IOException {
+        Pool pool = pools.computeIfAbsent(key(storageServer), k -> new Pool());
+        Semaphore permits = transfer ? pool.transferPermits : pool.permits;
+
+        try {
+            if (!permits.tryAcquire(BORROW_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for a storage server connection.");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a storage server connection.");
+        }
+
+        try {
+            StorageConnection connection;
+            while ((connection = pool.takeIdle()) != null) {
+                if (isHealthy(connection)) {
+                    connection.setTransfer(transfer);
+                    return connection;
+                }
+                connection.markBroken();
+                connection.close();
+            }
+
+            connection = new StorageConnection(storageServer);
+            connection.setTransfer(transfer);
+            return connection;
+        }
+        catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Hands a connection back to the pool. Broken connections are closed instead of being reused.
+     *
+     * @param connection the connection to hand back, may be null if the borrow failed.
+     */
+    public void release(StorageConnection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        Pool pool = pools.get(key(connection.getStorageServer()));
+        if (connection.isBroken() || pool == null) {
+            connection.close();
+        }
+        else {
+            pool.putIdle(connection);
+        }
+
+        if (pool != null) {
+            (connection.isTransfer() ? pool.transferPermits : pool.permits).release();
+        }
+    }
+
+    /**
+     * Closes every idle connection to a storage server, such as when it has stopped answering.
+     *
+     * @param storageServer the storage server to forget about.
+     */
+    public void invalidate(ServerConnectionDetails storageServer) {
+        Pool pool = pools.get(key(storageServer));
+        if (pool == null) {
+            return;
+        }
+
+        StorageConnection connection;
+        while ((connection = pool.takeIdle()) != null) {
+            connection.markBroken();
+            connection.close();
+        }
+    }
+
+    private boolean isHealthy(StorageConnection connection) {
+        if (!connection.isOpen()) {
+            return false;
+        }
+
+        //only bother the storage server if the connection has been quiet for a while.
+        if (System.currentTimeMillis() - connection.getLastUsed() < HEALTH_CHECK_AFTER) {
+            return true;
+        }
+
+        return connection.heartbeat();
+    }
+
+    /**
+     * Runs in the background, closing connections which have not been used for a while so that we do not hold on to
+     * storage server threads we no longer need.
+     */
+    private void closeIdleConnections() {
+        while (true) {
+            try {
+                Thread.sleep(IDLE_TIMEOUT / 2);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            for (Pool pool : pools.values()) {
+                StorageConnection connection;
+                while ((connection = pool.takeIdleOlderThan(now - IDLE_TIMEOUT)) != null) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private static String key(ServerConnectionDetails storageServer) {
+        return storageServer.getIpAddress() + ":" + storageServer.getPortNumber();
+    }
+
+    /**
+     * The connections to a single storage server.
+     */
+    private static class Pool {
+        private final Semaphore permits = new Semaphore(MAX_CONNECTIONS);
+        private final Semaphore transferPermits = new Semaphore(MAX_TRANSFERS);
+        private final Deque<StorageConnection> idle = new ArrayDeque<StorageConnection>();
+
+        private synchronized StorageConnection takeIdle() {
+            //most recently used first, so the oldest connections are the ones left to time out.
+            return idle.pollFirst();
+        }
+
+        private synchronized StorageConnection takeIdleOlderThan(long time) {
+            StorageConnection oldest = idle.peekLast();
+            if (oldest != null && oldest.getLastUsed() < time) {
+                return idle.pollLast();
+            }
+            return null;
+        }
+
+        private synchronized void putIdle(StorageConnection connection) {
+            idle.addFirst(connection);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+/**
+ * Keeps track of which storage server this server should use, so that handlers do not need to ask the communication
+ * server every time a client connects.
+ *
+ * The storage server is looked up once and then kept for as long as it answers, which is checked in the background.
+ * Moving to another storage server makes everything this server has learnt from the old one out of date, so a new one
+ * is only looked up if there is none or it has stopped answering. If a handler finds that the storage server has
+ * stopped answering it invalidates it, and the next handler to ask looks up a new one straight away.
+ *
+ * @author Bradley Davis
+ */
+public class StorageServerResolver {
+    private static final long CHECK_INTERVAL = 30000;
+
+    private final StorageConnectionPool storageConnectionPool;
+    private volatile ServerConnectionDetails communicationServer;
+    private volatile ServerConnectionDetails storageServer;
+    private Thread refresher;
+
+    /**
+     * Constructor which sets all internal class variables.
+     *
+     * @param storageConnectionPool the pool whose connections should be dropped when a storage server is invalidated.
+     */
+    public StorageServerResolver(StorageConnectionPool storageConnectionPool) {
+        this.storageConnectionPool = storageConnectionPool;
+        this.communicationServer = null;
+        this.storageServer = null;
+    }
+
+    /**
+     * Starts looking up the storage server in the background. This should be called once the communication server
+     * is known.
+     *
+     * @param communicationServer the communication server to ask for storage servers.
+     */
+    public synchronized void start(ServerConnectionDetails communicationServer) {
+        this.communicationServer = communicationServer;
+        if (refresher != null) {
+            return;
+        }
+
+        refresher = new Thread(() -> {
+            while (true) {
+                ServerConnectionDetails current = storageServer;
+                if (current == null) {
+                    refresh();
+                }
+                else if (!isAnswering(current)) {
+                    invalidate(current);
+                    refresh();
+                }
+
+                try {
+                    Thread.sleep(CHECK_INTERVAL);
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "StorageServerResolver-refresh");
+        refresher.setDaemon(true);
+        refresher.start();
+    }
+
+    /**
+     * Gets the storage server to use, looking one up first if there is none known.
+     *
+     * @return the storage server, or null if there is none available.
+     */
+    public ServerConnectionDetails getStorageServer() {
+        ServerConnectionDetails current = storageServer;
+        if (current != null) {
+            return current;
+        }
+
+        return refresh();
+    }
+
+    /**
+     * Forgets a storage server which has stopped answering, so that a new one is looked up next time.
+     *
+     * @param failed the storage server which failed.
+     */
+    public void invalidate(ServerConnectionDetails failed) {
+        if (failed == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (storageServer == failed) {
+                System.out.println("Storage server " + failed.getIpAddress() + ":" + failed.getPortNumber() + " stopped answering.");
+                storageServer = null;
+            }
+        }
+        storageConnectionPool.invalidate(failed);
+    }
+
+    /**
+     * Checks that a storage server is still answering. A connection of its own is used rather than one from the pool,
+     * so that a storage server which is just busy is not mistaken for one which has died.
+     *
+     * @param current the storage server to check.
+     * @return whether the storage server answered.
+     */
+    private boolean isAnswering(ServerConnectionDetails current) {
+        StorageConnection connection = null;
+        try {
+            connection = new StorageConnection(current);
+            if (connection.heartbeat()) {
+                return true;
+            }
+            connection.markBroken();
+            return false;
+        }
+        catch (IOException e) {
+            return false;
+        }
+        finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Asks the communication server for a storage server. If the communication server cannot be reached the storage
+     * server we already know about is kept.
+     *
+     * @return the storage server now in use, or null if there is none available.
+     */
+    private synchronized ServerConnectionDetails refresh() {
+        if (communicationServer == null) {
+            return null;
+        }
+
+        ConnectionState communicationServerConnectionState = null;
+        try {
+            //connect to the communication server.
+            Socket communicationServerConnection = new Socket(communicationServer.getIpAddress(), communicationServer.getPortNumber());
+            DataOutputStream communicationServerOutput = new DataOutputStream(communicationServerConnection.getOutputStream());
+            DataInputStream communicationServerInput = new DataInputStream(communicationServerConnection.getInputStream());
+            communicationServerConnectionState = ConnectionState.CONNECTED;
+
+            String messageReceived = null;
+
+            //tell it that we are a server
+            MessageConverter.writeMessage(communicationServerOutput, "SERVER");
+
+            //request details for a storage server.
+            MessageConverter.writeMessage(communicationServerOutput, "GETSERVER:STORAGE");
+
+            //handle response.
+            messageReceived = MessageConverter.readMessage(communicationServerInput);
+            String[] responses = messageReceived.split(":");
+
+            if (responses[0].equals("IP")) {
+                //we got the message back fine
+                String ipAddress = responses[1];
+                String port = responses[3];
+                int portToUse = parseInt(port);
+                if (portToUse > 0) {
+                    storageServer = sameServer(storageServer, ipAddress, portToUse) ? storageServer : new ServerConnectionDetails(ipAddress, portToUse);
+                }
+                else {
+                    System.out.println("Error getting port number of server.");
+                }
+            }
+            else if (responses[0].equals("ERROR")) {
+                //something died.
+                if (responses[1].equals("No storage server exists.")) {
+                    storageServer = null;
+                }
+                else {
+                    System.out.println(messageReceived);
+                }
+            }
+            else {
+                System.out.println("Some error occurred getting the storage server.");
+            }
+
+            //disconnect safely.
+            MessageConverter.writeMessage(communicationServerOutput, "DISCONNECT");
+
+            messageReceived = MessageConverter.readMessage(communicationServerInput);
+
+            if (!messageReceived.equals("DISCONNECT")) {
+                System.out.println("Unable to disconnect properly from communication server.");
+            }
+
+            communicationServerConnectionState = ConnectionState.DISCONNECTING;
+            communicationServerConnection.close();
+        }
+        catch (UnknownHostException e) {
+            e.printStackTrace();
+            System.out.println("Communication server is dead.");
+        }
+        catch (IOException e) {
+            if (communicationServerConnectionState != ConnectionState.DISCONNECTING) {
+                System.out.println("Error getting storage server details.");
+                e.printStackTrace();
+            }
+        }
+
+        return storageServer;
+    }
+
+    /**
+     * Checks whether the storage server we were given is the one we already have, so the same details get reused.
+     */
+    private static boolean sameServer(ServerConnectionDetails current, String ipAddress, int portNumber) {
+        return current != null && current.getIpAddress().equals(ipAddress) && current.getPortNumber() == portNumber;
+    }
+
+    /**
+     * Small function to parse what is expected to be a positive integer.
+     *
+     * @param number the number to parse.
+     * @return the parsed integer or -1 if unable.
+     */
+    private int parseInt(String number) {
+        try {
+            return Integer.parseInt(number);
+        }
+        catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+}
@@ -1,10 +1,12 @@
 import java.io.*;
 import java.net.Socket;
-import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Random;
 
 /**
  * Connection handler for streaming server. This will handle the connection for each client connected to the streaming server.
@@ -12,15 +14,25 @@ import java.util.Random;
  * @author Bradley Davis
  */
 public class StreamingConnectionHandler extends ConnectionHandler {
+    private static final int MAX_OPEN_ATTEMPTS = 3;
+
     private final String cachedStorage;
     private final String fileSeparator;
     private StreamingSongQueue songQueue;
+    private SongChecksums songChecksums;
+    private final SongCatalogCache songCatalog;
+    private final SongCache songCache;
+    private final SongFetcher songFetcher;
 
-    public StreamingConnectionHandler(Socket socket, String cachedStorageLocation, ServerConnectionDetails communicationServer, BaseServer parent) {
+    public StreamingConnectionHandler(Socket socket, String cachedStorageLocation, SongCache songCache, SongFetcher songFetcher, SongCatalogCache songCatalog, ServerConnectionDetails communicationServer, BaseServer parent) {
         super(socket, communicationServer, parent);
         cachedStorage = cachedStorageLocation;
+        this.songCache = songCache;
+        this.songFetcher = songFetcher;
+        this.songCatalog = songCatalog;
         fileSeparator = System.getProperty("file.separator");
         songQueue = new StreamingSongQueue();
+        songChecksums = SongChecksums.getInstance();
     }
 
     @Override
@@ -53,77 +65,125 @@ public class StreamingConnectionHandler extends ConnectionHandler {
     private void doMessagePump() {
         try {
             while (connectionState != ConnectionState.DISCONNECTING) {
-                buffer = new byte[200];
-                bytesRead = dataInputStream.read(buffer);
-
-                //convert message to string for easier handling
-                String messageToProcess = MessageConverter.byteToString(buffer, bytesRead);
+                //read the next whole message sent by the client
+                String messageToProcess = MessageConverter.readMessage(dataInputStream);
 
                 String[] arguments = messageToProcess.split(":");
 
                 switch (arguments[0]) {
                     case "DISCONNECT":
                         connectionState = ConnectionState.DISCONNECTING;
-                        dataOutputStream.write(MessageConverter.stringToByte("DISCONNECT"));
+                        MessageConverter.writeMessage(dataOutputStream, "DISCONNECT");
                         break;
 
                     case "SONG":
                         //search list of files to see if any of them contain the search term
                         String toPlay = searchSongs(arguments[1]);
                         if (toPlay.startsWith("ERROR")) {
-                            buffer = MessageConverter.stringToByte(toPlay);
-                            dataOutputStream.write(buffer);
+                            MessageConverter.writeMessage(dataOutputStream, toPlay);
                         }
                         else {
-                            dataOutputStream.write(MessageConverter.stringToByte("SONG"));
-                            dataOutputStream.flush();
-                            Thread.sleep(100);
-                            int amountRead = 0;
-                            byte[] songBuffer = new byte[4096];
-                            FileInputStream songIn = new FileInputStream(toPlay);
-
-                            while ((amountRead = songIn.read(songBuffer, 0, songBuffer.length)) != -1) {
-                                dataOutputStream.write(songBuffer, 0, amountRead);
-                                dataOutputStream.flush();
+                            String songPath = cachedStorage + fileSeparator + toPlay;
+                            boolean wholeSong = !SongRange.isRanged(arguments);
+                            boolean sent = false;
+                            boolean cached = songCache.lookup(toPlay);
+                            if (!cached) {
+                                //the song is not in our cache, so get it from the storage server, or follow whoever is already getting it.
+                                SongFetch fetch = songCache.fetch(toPlay, started -> songFetcher.fetch(toPlay, started));
+                                if (wholeSong) {
+                                    //send the song on as it arrives rather than making the client wait for all of it.
+                                    sent = sendFetchingSong(fetch);
+                                }
+                                cached = sent || fetch.await();
+                            }
+
+                            if (!cached) {
+                                MessageConverter.writeMessage(dataOutputStream, "ERROR:Unable to retrieve song from storage server.");
+                                break;
                             }
-                            songIn.close();
 
-                            Thread.sleep(100);
-                            dataOutputStream.write(MessageConverter.stringToByte("EOF:EOF:EOF"));
-                            dataOutputStream.flush();
-                            songPlayed(arguments[1]);
+                            HotSongTier.HotSong hot = sent ? null : songCache.getHot(toPlay);
+                            if (hot != null) {
+                                //one of our most played songs, which is already in memory.
+                                ByteBuffer songBytes = hot.getBuffer();
+                                if (wholeSong) {
+                                    MessageConverter.writeSong(socket, dataOutputStream, songBytes, hot.getChecksum());
+                                }
+                                else {
+                                    SongRange range = SongRange.parse(arguments, songBytes.capacity());
+                                    if (range == null) {
+                                        MessageConverter.writeMessage(dataOutputStream, "ERROR:Invalid range.");
+                                    }
+                                    else {
+                                        MessageConverter.writeSong(socket, dataOutputStream, songBytes, hot.getChecksum(), range);
+                                    }
+                                }
+                            }
+                            else if (!sent) {
+                                FileChannel songIn = openCachedSong(toPlay, songPath);
+                                if (songIn == null) {
+                                    MessageConverter.writeMessage(dataOutputStream, "ERROR:Unable to retrieve song from storage server.");
+                                    break;
+                                }
+                                try {
+                                    //the header tells the client how many bytes to expect and how to check them.
+                                    long checksum = songChecksums.getChecksum(songPath, songIn);
+                                    if (wholeSong) {
+                                        MessageConverter.writeSong(socket, dataOutputStream, songIn, checksum);
+                                    }
+                                    else {
+                                        //only part of the song was asked for, most likely to resume after the connection dropped.
+                                        SongRange range = SongRange.parse(arguments, songIn.size());
+                                        if (range == null) {
+                                            MessageConverter.writeMessage(dataOutputStream, "ERROR:Invalid range.");
+                                        }
+                                        else {
+                                            MessageConverter.writeSong(socket, dataOutputStream, songIn, checksum, range);
+                                        }
+                                    }
+                                }
+                                finally {
+                                    songIn.close();
+                                }
+                            }
+
+                            //a resumed song has already been counted as played.
+                            if (wholeSong) {
+                                songPlayed(arguments[1]);
+                            }
                         }
 
                         break;
 
                     case "SONGLIST":
+                        if (SongPage.isPaged(arguments)) {
+                            //a whole page of songs goes in a single message.
+                            SongPage page = SongPage.parse(arguments);
+                            String reply = page == null ? null : getSongPage(page);
+                            MessageConverter.writeMessage(dataOutputStream, reply == null ? "ERROR:Invalid page." : reply);
+                            break;
+                        }
+
                         //send back the full list of available songs.
                         List<String> songs = getAllSongs();
                         if (songs.size() == 0) {
-                            buffer = MessageConverter.stringToByte("ERROR:No songs");
-                            dataOutputStream.write(buffer);
+                            MessageConverter.writeMessage(dataOutputStream, "ERROR:No songs");
                         }
                         else {
                             for (String song : songs) {
-                                buffer = MessageConverter.stringToByte("SONGS:" + song);
-                                dataOutputStream.write(buffer);
-                                dataOutputStream.flush();
-                                Thread.sleep(50);
+                                MessageConverter.writeMessage(dataOutputStream, "SONGS:" + song);
                             }
                         }
                         break;
 
                     case "RECOMMENDATION":
-                        buffer = MessageConverter.stringToByte(getRecommendation());
-                        dataOutputStream.write(buffer);
+                        MessageConverter.writeMessage(dataOutputStream, getRecommendation());
                         break;
 
                     default:
-                        buffer = MessageConverter.stringToByte("MESSAGEUNSUPPORTED");
-                        dataOutputStream.write(buffer);
+                        MessageConverter.writeMessage(dataOutputStream, "MESSAGEUNSUPPORTED");
                         break;
                 }
-                dataOutputStream.flush();
             }
 
             socket.close();
@@ -133,9 +193,6 @@ public class StreamingConnectionHandler extends ConnectionHandler {
                 e.printStackTrace();
             }
         }
-        catch (InterruptedException e) {
-            e.printStackTrace();
-        }
     }
 
     /**
@@ -144,56 +201,31 @@ public class StreamingConnectionHandler extends ConnectionHandler {
      * @param songPlayed The song that was played.
      */
     private void songPlayed(String songPlayed) {
-        ConnectionState storageServerConnectionState = ConnectionState.CONNECTED;
-        Socket storageServer = null;
         if (myStorageServer == null) {
             //if we have no storage server, attempt to get it one more time.
             getStorageServer();
             if (myStorageServer == null) {
+                return;
             }
         }
 
+        StorageConnectionPool pool = parent.getStorageConnectionPool();
+        StorageConnection storageServer = null;
         try {
-            storageServer = new Socket(myStorageServer.getIpAddress(), myStorageServer.getPortNumber());
-            DataOutputStream storageServerOut = new DataOutputStream(storageServer.getOutputStream());
-            DataInputStream storageServerIn = new DataInputStream(storageServer.getInputStream());
-
-            byte[] buffer = new byte[100];
-            int bytesRead = 0;
-
-            storageServerOut.write(MessageConverter.stringToByte("SONGPLAYED:"+songPlayed));
-            Thread.sleep(50);
-
-            //safely disconnect
-            storageServerOut.write(MessageConverter.stringToByte("DISCONNECT"));
-            storageServerOut.flush();
-            storageServerConnectionState = ConnectionState.DISCONNECTING; //this is set here as the storage server may close the socket before we process its reply.
-            bytesRead = storageServerIn.read(buffer);
-            String message = MessageConverter.byteToString(buffer, bytesRead);
-            if (message.equalsIgnoreCase("DISCONNECT")) {
-                storageServer.close();
-            }
-        }
-        catch (UnknownHostException e) {
-            e.printStackTrace();
+            storageServer = pool.borrow(myStorageServer);
+
+            //the storage server does not reply to this.
+            storageServer.writeMessage("SONGPLAYED:" + songPlayed);
         }
         catch (IOException e) {
-            if (storageServerConnectionState != ConnectionState.DISCONNECTING) {
-                e.printStackTrace();
+            if (storageServer != null) {
+                storageServer.markBroken();
             }
-        }
-        catch (InterruptedException e) {
+            storageServerFailed();
             e.printStackTrace();
-        } finally {
-            try {
-                if (storageServer != null && storageServer.isClosed()) {
-                    storageServer.close();
-                }
-            }
-            catch (IOException e) {
-                //we couldnt close the socket but we can ignore this.
-                e.printStackTrace();
-            }
+        }
+        finally {
+            pool.release(storageServer);
         }
     }
 
@@ -204,8 +236,6 @@ public class StreamingConnectionHandler extends ConnectionHandler {
      */
     private String getRecommendation() {
         String recommendation = "ERROR:Unable to get recommendation.";
-        ConnectionState storageServerConnectionState = ConnectionState.CONNECTED;
-        Socket storageServer = null;
         if (myStorageServer == null) {
             //if we have no storage server, attempt to get it one more time.
             getStorageServer();
@@ -215,223 +245,125 @@ public class StreamingConnectionHandler extends ConnectionHandler {
             }
         }
 
+        StorageConnectionPool pool = parent.getStorageConnectionPool();
+        StorageConnection storageServer = null;
         try {
-            storageServer = new Socket(myStorageServer.getIpAddress(), myStorageServer.getPortNumber());
-            DataOutputStream storageServerOut = new DataOutputStream(storageServer.getOutputStream());
-            DataInputStream storageServerIn = new DataInputStream(storageServer.getInputStream());
-
-            byte[] buffer = new byte[100];
-            int bytesRead = 0;
-
-            storageServerOut.write(MessageConverter.stringToByte("RECOMMENDATION"));
-
-            bytesRead = storageServerIn.read(buffer);
-            recommendation = MessageConverter.byteToString(buffer, bytesRead);
-
-            //safely disconnect
-            storageServerOut.write(MessageConverter.stringToByte("DISCONNECT"));
-            storageServerOut.flush();
-            storageServerConnectionState = ConnectionState.DISCONNECTING; //this is set here as the storage server may close the socket before we process its reply.
-            bytesRead = storageServerIn.read(buffer);
-            String message = MessageConverter.byteToString(buffer, bytesRead);
-            if (message.equalsIgnoreCase("DISCONNECT")) {
-                storageServer.close();
-            }
-        }
-        catch (UnknownHostException e) {
-            e.printStackTrace();
+            storageServer = pool.borrow(myStorageServer);
+
+            storageServer.writeMessage("RECOMMENDATION");
+            recommendation = storageServer.readMessage();
         }
         catch (IOException e) {
-            if (storageServerConnectionState != ConnectionState.DISCONNECTING) {
-                e.printStackTrace();
+            if (storageServer != null) {
+                storageServer.markBroken();
             }
+            storageServerFailed();
+            e.printStackTrace();
         }
         finally {
-            try {
-                if (storageServer != null && storageServer.isClosed()) {
-                    storageServer.close();
-                }
-            }
-            catch (IOException e) {
-                //we couldnt close the socket but we can ignore this.
-                e.printStackTrace();
-            }
+            pool.release(storageServer);
         }
 
         return recommendation;
     }
 
-    private List<String> getAllSongsStorage() {
-        List<String> replies = new ArrayList<String>();
-        ConnectionState storageServerConnectionState = ConnectionState.CONNECTED;
-        Socket storageServer = null;
+    /**
+     * Asks the storage server for any changes to the song list since we last asked. If the storage server cannot be
+     * reached the list we already have is kept.
+     */
+    private void refreshSongCatalog() {
         if (myStorageServer == null) {
             //if we have no storage server, attempt to get it one more time.
             getStorageServer();
             if (myStorageServer == null) {
-                replies.add("ERROR:Storage server inaccessible.");
-                return replies;
+                return;
             }
         }
 
+        StorageConnectionPool pool = parent.getStorageConnectionPool();
+        StorageConnection storageServer = null;
         try {
-            storageServer = new Socket(myStorageServer.getIpAddress(), myStorageServer.getPortNumber());
-            DataOutputStream storageServerOut = new DataOutputStream(storageServer.getOutputStream());
-            DataInputStream storageServerIn = new DataInputStream(storageServer.getInputStream());
-
-            storageServerOut.write(MessageConverter.stringToByte("SONGLIST"));
-
-            boolean receiving = true;
-            String temp;
-            byte[] buffer = new byte[200];
-            int bytesRead = 0;
-
-            bytesRead = storageServerIn.read(buffer);
-            temp = MessageConverter.byteToString(buffer, bytesRead);
-            if (temp.contains("ERROR:") || temp.contains("MESSAGEUNSUPPORTED")) {
-                receiving = false;
-            }
-            else if (temp.contains("EOF:EOF:EOF")) {
-                //were done
-                receiving = false;
-            }
-            else {
-                replies.add(temp);
-            }
-
-            while (receiving) {
-                bytesRead = storageServerIn.read(buffer);
-                temp = MessageConverter.byteToString(buffer, bytesRead);
-                if (temp.contains("EOF:EOF:EOF")) {
-                    //were done
-                    receiving = false;
-                }
-                else {
-                    replies.add(temp);
-                }
-            }
-
-            //safely disconnect
-            storageServerOut.write(MessageConverter.stringToByte("DISCONNECT"));
-            storageServerOut.flush();
-            storageServerConnectionState = ConnectionState.DISCONNECTING; //this is set here as the storage server may close the socket before we process its reply.
-            bytesRead = storageServerIn.read(buffer);
-            String message = MessageConverter.byteToString(buffer, bytesRead);
-            if (message.equalsIgnoreCase("DISCONNECT")) {
-                storageServer.close();
-            }
-        }
-        catch (UnknownHostException e) {
-            replies.add("ERROR:Storage server inaccessible.");
+            storageServer = pool.borrow(myStorageServer);
+            songCatalog.refresh(storageServer);
         }
         catch (IOException e) {
-            if (storageServerConnectionState != ConnectionState.DISCONNECTING) {
-                //we died before our time
-                replies.add("ERROR:Storage server inaccessible.");
+            //we died before our time
+            if (storageServer != null) {
+                storageServer.markBroken();
             }
+            storageServerFailed();
         }
         finally {
+            pool.release(storageServer);
+        }
+    }
+
+    /**
+     * Opens a song which the cache says it holds. The song can be evicted between looking it up and opening it, in which
+     * case it is treated as a miss and fetched again.
+     *
+     * @param toPlay the title of the song.
+     * @param songPath the path of the song in the cache.
+     * @return the opened song, or null if it could not be fetched again.
+     * @throws IOException if the song could not be opened for any other reason.
+     */
+    private FileChannel openCachedSong(String toPlay, String songPath) throws IOException {
+        for (int attempt = 1; ; attempt++) {
             try {
-                if (storageServer != null && storageServer.isClosed()) {
-                    storageServer.close();
+                return FileChannel.open(Paths.get(songPath));
+            }
+            catch (NoSuchFileException e) {
+                if (attempt == MAX_OPEN_ATTEMPTS) {
+                    //the cache is too busy to keep hold of the song, so give up rather than fetch it forever.
+                    return null;
                 }
             }
-            catch (IOException e) {
-                //we couldnt close the socket but we can ignore this.
-                e.printStackTrace();
+
+            SongFetch fetch = songCache.fetch(toPlay, started -> songFetcher.fetch(toPlay, started));
+            if (!fetch.await()) {
+                return null;
             }
         }
-
-        return replies;
     }
 
-    private boolean getSongExternal(String toAdd) {
-        ConnectionState storageServerConnectionState = ConnectionState.CONNECTED;
-        Socket storageServer = null;
-        if (myStorageServer == null) {
-            //if we have no storage server, attempt to get it one more time.
-            getStorageServer();
-            if (myStorageServer == null) {
-                return false;
-            }
+    /**
+     * Sends a song to the client while it is still being fetched from the storage server, by reading the partial file
+     * just behind the fetch.
+     *
+     * @param fetch the fetch to follow.
+     * @return true if the song was sent, false if the fetch finished or failed before it could be followed, in which
+     *         case nothing has been sent.
+     * @throws IOException if the fetch failed part way through sending, in which case the client has been sent part
+     *                     of a song and the connection cannot be used any more.
+     */
+    private boolean sendFetchingSong(SongFetch fetch) throws IOException {
+        int generation = fetch.awaitStart();
+        if (generation < 0) {
+            return false;
         }
 
-        FileOutputStream outputStream;
+        FileChannel songIn;
         try {
-            File file = new File(cachedStorage + fileSeparator + toAdd);
-            try {
-                byte[] data = new byte[] {};
-                outputStream = new FileOutputStream(file);
-                outputStream.write(data);
-            }
-            catch (IOException e) {
-                return false;
-            }
-
-            storageServer = new Socket(myStorageServer.getIpAddress(), myStorageServer.getPortNumber());
-            DataOutputStream storageServerOut = new DataOutputStream(storageServer.getOutputStream());
-            DataInputStream storageServerIn = new DataInputStream(storageServer.getInputStream());
-
-            storageServerOut.write(MessageConverter.stringToByte("SONG:" + toAdd));
-
-            boolean receiving = true;
-            String temp;
-            byte[] buffer = new byte[4069];
-            int bytesRead = 0;
-
-            bytesRead = storageServerIn.read(buffer);
-            temp = MessageConverter.byteToString(buffer, bytesRead);
-            if (temp.contains("ERROR:") || temp.contains("MESSAGEUNSUPPORTED")) {
-                receiving = false;
-            }
-            else if (temp.contains("EOF:EOF:EOF")) {
-                //were done
-                receiving = false;
-            }
-
-            while (receiving) {
-                bytesRead = storageServerIn.read(buffer);
-                temp = MessageConverter.byteToString(buffer, bytesRead);
-                if (temp.contains("EOF:EOF:EOF")) {
-                    //were done
-                    receiving = false;
-                    outputStream.write(buffer, 0, bytesRead - "EOF:EOF:EOF".length());
-                }
-                else {
-                    outputStream.write(buffer, 0, bytesRead);
-                }
-            }
-            outputStream.close();
-
-            //safely disconnect
-            storageServerOut.write(MessageConverter.stringToByte("DISCONNECT"));
-            storageServerOut.flush();
-            storageServerConnectionState = ConnectionState.DISCONNECTING; //this is set here as the storage server may close the socket before we process its reply.
-            bytesRead = storageServerIn.read(buffer);
-            String message = MessageConverter.byteToString(buffer, bytesRead);
-            if (message.equalsIgnoreCase("DISCONNECT")) {
-                storageServer.close();
-            }
+            songIn = fetch.open();
         }
-        catch (UnknownHostException e) {
+        catch (NoSuchFileException e) {
+            //the fetch threw the partial file away before we could open it, so wait for it to finish instead.
             return false;
         }
-        catch (IOException e) {
-            if (storageServerConnectionState != ConnectionState.DISCONNECTING) {
-                //we died before our time
-                return false;
+
+        try {
+            long length = fetch.getLength();
+            MessageConverter.writeMessage(dataOutputStream, "SONG:" + length + ":" + SongChecksums.format(fetch.getChecksum()));
+
+            long sent = 0;
+            while (sent < length) {
+                long available = Math.min(fetch.awaitProgress(sent, generation), length);
+                MessageConverter.writeFileRange(socket, dataOutputStream, songIn, sent, available - sent);
+                sent = available;
             }
         }
         finally {
-            try {
-                if (storageServer != null && storageServer.isClosed()) {
-                    storageServer.close();
-                }
-            }
-            catch (IOException e) {
-                //we couldnt close the socket but we can ignore this.
-                e.printStackTrace();
-            }
+            songIn.close();
         }
 
         return true;
@@ -441,35 +373,26 @@ public class StreamingConnectionHandler extends ConnectionHandler {
      * Method which searches the list of songs.
      *
      * @param songToFind the song which the user is searching for.
-     * @return the message to be returned to the client.
+     * @return the title of the best matching song, or the error to be returned to the client.
      */
     private String searchSongs(String songToFind) {
-        Random randomNumberGenerator = new Random(System.currentTimeMillis());
         List<String> songs = getAllSongs();
-        List<String> songsFound = new ArrayList<String>();
 
         if (songs.size() > 0) {
-            for (String song : songs) {
-                if (song.contains(songToFind)) {
-                    songsFound.add(song);
-                }
+            List<String> songsFound;
+            if (songCatalog.getSongs().size() > 0) {
+                songsFound = songCatalog.search(songToFind);
+            }
+            else {
+                //we could only list our own cache, which is small enough to index as we go.
+                SongSearchIndex localIndex = new SongSearchIndex();
+                localIndex.sync(songs);
+                songsFound = localIndex.search(songToFind);
             }
 
             if (songsFound.size() > 0) {
-                String toAdd = songsFound.get(randomNumberGenerator.nextInt(songsFound.size()));
-                String songPath = cachedStorage + fileSeparator + toAdd;
-                File song = new File(songPath);
-                if (song.exists()) {
-                    return songPath;
-                }
-                else { //the song is not in our cache, get it from the storage server.
-                    if (getSongExternal(toAdd)) {
-                        return songPath;
-                    }
-                    else {
-                        return "ERROR:Unable to retrieve song from storage server.";
-                    }
-                }
+                //the best match comes first, and an exact title always wins so that asking for the rest of a song gets the same file back.
+                return songsFound.get(0);
             }
             else {
                 return "ERROR:Song not in system.";
@@ -479,23 +402,48 @@ public class StreamingConnectionHandler extends ConnectionHandler {
         return "ERROR:Song not in system.";
     }
 
+    /**
+     * Builds the reply for one page of the list of songs.
+     *
+     * @param page the page asked for.
+     * @return the reply, or null if the page starts past the end of the list.
+     */
+    private String getSongPage(SongPage page) {
+        List<String> songs = getAllSongs();
+        if (songCatalog.getSongs().size() > 0) {
+            return songCatalog.getPage(page);
+        }
+
+        //we could only list our own cache, which has no version.
+        return page.build(songs, -1);
+    }
+
     /**
      * Retrieves the full list of songs.
      *
      * @return the full list of songs.
      */
     private List<String> getAllSongs() {
-        File songLocation = new File(cachedStorage);
-        String[] songs = songLocation.list();
-        List<String> list = getAllSongsStorage();
+        if (songCatalog.needsRefresh()) {
+            refreshSongCatalog();
+        }
+
+        List<String> list = songCatalog.getSongs();
         //if we got nothing from the storage server, just output the local songs.
         if (list.size() == 0){
+            File songLocation = new File(cachedStorage);
+            String[] songs = songLocation.list();
+            list = new ArrayList<String>();
             if (songs != null) {
-                list = Arrays.asList(songs);
-            }
-            else {
-                list = new ArrayList<String>();
+                for (String song : songs) {
+                    //songs which are still being fetched are not ready to be played.
+                    if (!song.endsWith(SongCache.PARTIAL_SUFFIX)) {
+                        list.add(song);
+                    }
+                }
             }
+            //keep the same order as the storage server so that pages line up.
+            Collections.sort(list);
         }
         return list;
     }
@@ -2,8 +2,10 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 
 /**
  * Class which will be used to stream music to the client.
@@ -12,8 +14,11 @@ import java.net.Socket;
  */
 public class StreamingServer extends BaseServer {
 
+    private final SongCatalogCache songCatalog;
+
     public StreamingServer(int portNumber) {
         super(portNumber);
+        this.songCatalog = new SongCatalogCache();
     }
 
     /**
@@ -39,6 +44,10 @@ public class StreamingServer extends BaseServer {
                 return false;
             }
 
+            //pick up whatever was cached last time the server ran.
+            SongCache songCache = new SongCache(musicCache);
+            songCache.load();
+
             communicationServerDetails = getCommunicationServerDetails();
 
             boolean communicationServerContacted = contactCommunicationServer();
@@ -47,8 +56,17 @@ public class StreamingServer extends BaseServer {
                 return false;
             }
 
-            //create server socket for client communication
-            ServerSocket serverSocket = new ServerSocket(portNumber);
+            //look up the storage server now so that the first client does not have to wait for it.
+            storageServerResolver.start(communicationServerDetails);
+
+            //clients' fetches are never held back, while prefetches get a limited share of bandwidth.
+            SongFetcher songFetcher = new SongFetcher(this, musicCache, songCache, 0, false);
+            new SongPrefetcher(this, musicCache, songCache).start();
+
+            //create server socket for client communication. This is opened through a channel so that accepted sockets
+            //have channels too, which lets songs be sent straight from the file to the socket.
+            ServerSocket serverSocket = ServerSocketChannel.open().socket();
+            serverSocket.bind(new InetSocketAddress(portNumber));
             //set a 60 second timeout on the server socket.
             serverSocket.setSoTimeout(60000);
             boolean firstTime = true;
@@ -65,9 +83,8 @@ public class StreamingServer extends BaseServer {
                     Socket socket = serverSocket.accept();
                     numConnections++;
 
-                    StreamingConnectionHandler streamingConnectionHandler = new StreamingConnectionHandler(socket, musicCache, communicationServerDetails, this);
-                    Thread connectionHandler = new Thread(streamingConnectionHandler);
-                    connectionHandler.start();
+                    StreamingConnectionHandler streamingConnectionHandler = new StreamingConnectionHandler(socket, musicCache, songCache, songFetcher, songCatalog, communicationServerDetails, this);
+                    handleConnection(socket, streamingConnectionHandler);
                     if (firstTime) {
                         firstTime = false;
                     }
@@ -100,29 +117,22 @@ public class StreamingServer extends BaseServer {
             connectionState = ConnectionState.CONNECTED;
 
             //send necessary commands to communication server to tell it that we exist.
-            byte[] buffer = new byte[100];
-            int messageSize = 0;
             String messageReceived = null;
 
-            communicationServerOutput.write(MessageConverter.stringToByte("SERVER"));
-            communicationServerOutput.flush();
+            MessageConverter.writeMessage(communicationServerOutput, "SERVER");
 
-            communicationServerOutput.write(MessageConverter.stringToByte("SERVERTYPE:STREAMING:"+portNumber));
-            communicationServerOutput.flush();
+            MessageConverter.writeMessage(communicationServerOutput, "SERVERTYPE:STREAMING:"+portNumber);
 
-            messageSize = communicationServerInput.read(buffer);
-            messageReceived = MessageConverter.byteToString(buffer, messageSize);
+            messageReceived = MessageConverter.readMessage(communicationServerInput);
 
             if (!messageReceived.equals("TYPESTORED")) {
                 System.out.println("Communication server was unable to recognise this server - shutting down.");
                 return false;
             }
 
-            communicationServerOutput.write(MessageConverter.stringToByte("DISCONNECT"));
-            communicationServerOutput.flush();
+            MessageConverter.writeMessage(communicationServerOutput, "DISCONNECT");
 
-            messageSize = communicationServerInput.read(buffer);
-            messageReceived = MessageConverter.byteToString(buffer, messageSize);
+            messageReceived = MessageConverter.readMessage(communicationServerInput);
 
             if (!messageReceived.equals("DISCONNECT")) {
                 System.out.println("Unable to disconnect properly from communication server - shutting down.");
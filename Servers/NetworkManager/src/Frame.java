@@ -0,0 +1,47 @@
+/**
+ * Class to store a single frame which has been read from the network.
+ *
+ * @author Bradley Davis
+ */
+public class Frame {
+    private final MessageType type;
+    private final byte[] payload;
+
+    /**
+     * Constructor which sets all internal class variables.
+     *
+     * @param type the type of the frame.
+     * @param payload the bytes which were carried by the frame.
+     */
+    Frame(MessageType type, byte[] payload) {
+        this.type = type;
+        this.payload = payload;
+    }
+
+    /**
+     * Method to get the type of the frame.
+     *
+     * @return the type of the frame.
+     */
+    public MessageType getType() {
+        return type;
+    }
+
+    /**
+     * Method to get the bytes which were carried by the frame.
+     *
+     * @return the payload of the frame.
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * Method to get the payload of the frame as a UTF 8 string.
+     *
+     * @return the payload converted to a string.
+     */
+    public String getText() {
+        return MessageConverter.byteToString(payload, payload.length);
+    }
+}
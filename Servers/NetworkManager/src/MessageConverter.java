@@ -1,11 +1,21 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 /**
  * Allows for the conversion of various data types to bytes to send over the network.
  *
+ * Messages are sent as frames so that a message is always read back whole, no matter how TCP splits or joins the
+ * writes. Each frame is a 4 byte big endian payload length, a 1 byte opcode (see {@link MessageType}) and the payload.
+ *
  * @author Bradley Davis
  */
 public class MessageConverter {
+    public static final int HEADER_SIZE = 5;
+    public static final int MAX_FRAME_SIZE = 1024 * 1024;
+
     /**
      * This method converts a byte array to an UTF 8 string and converts any characters that aren't in the character set
      * to a standard character that is in the set.
@@ -43,4 +53,90 @@ public class MessageConverter {
 
         return s.getBytes(StandardCharsets.UTF_8);
     }
+
+    /**
+     * Writes a text message to the stream as a single frame and flushes it.
+     *
+     * @param out the stream to write the message to.
+     * @param message the message to be sent.
+     * @throws IOException if the stream could not be written to.
+     */
+    public static void writeMessage(DataOutputStream out, String message) throws IOException {
+        byte[] payload = stringToByte(message);
+        writeFrame(out, MessageType.TEXT, payload, 0, payload.length);
+    }
+
+    /**
+     * Writes a frame to the stream and flushes it. The header and payload are written together so that small frames
+     * go out in a single segment.
+     *
+     * @param out the stream to write the frame to.
+     * @param type the type of the frame.
+     * @param payload the buffer holding the payload.
+     * @param offset the position in the buffer that the payload starts at.
+     * @param length the number of payload bytes to send.
+     * @throws IOException if the stream could not be written to.
+     */
+    public static void writeFrame(DataOutputStream out, MessageType type, byte[] payload, int offset, int length) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + length);
+        frame.putInt(length);
+        frame.put(type.getOpcode());
+        frame.put(payload, offset, length);
+        out.write(frame.array(), 0, frame.position());
+        out.flush();
+    }
+
+    /**
+     * Writes a frame with no payload to the stream, such as the END frame which follows the lines sent for SONGLIST, CHANGES and ACCOUNTCHANGES.
+     *
+     * @param out the stream to write the frame to.
+     * @param type the type of the frame.
+     * @throws IOException if the stream could not be written to.
+     */
+    public static void writeFrame(DataOutputStream out, MessageType type) throws IOException {
+        writeFrame(out, type, new byte[0], 0, 0);
+    }
+
+    /**
+     * Reads a single whole frame from the stream, blocking until all of it has arrived.
+     *
+     * @param in the stream to read the frame from.
+     * @return the frame that was read.
+     * @throws IOException if the stream closed part way through a frame or the frame was malformed.
+     */
+    public static Frame readFrame(DataInputStream in) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        in.readFully(header);
+        ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+
+        int length = headerBuffer.getInt();
+        byte opcode = headerBuffer.get();
+        MessageType type = MessageType.fromOpcode(opcode);
+
+        if (type == null) {
+            throw new IOException("Unknown opcode received: " + opcode);
+        }
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Frame length out of range: " + length);
+        }
+
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(type, payload);
+    }
+
+    /**
+     * Reads a single text message from the stream.
+     *
+     * @param in the stream to read the message from.
+     * @return the message that was read.
+     * @throws IOException if the stream closed part way through a frame or the frame was not a text frame.
+     */
+    public static String readMessage(DataInputStream in) throws IOException {
+        Frame frame = readFrame(in);
+        if (frame.getType() != MessageType.TEXT) {
+            throw new IOException("Expected a text frame but received " + frame.getType() + ".");
+        }
+        return frame.getText();
+    }
 }
@@ -0,0 +1,44 @@
+/**
+ * Enum to define the different types of frames which can be sent over the network.
+ *
+ * Every frame starts with the length of its payload followed by one of these opcodes so that the receiver knows how
+ * much to read and how to treat what it has read.
+ *
+ * @author Bradley Davis
+ */
+public enum MessageType {
+    TEXT((byte) 1),
+    //2 was used for frames of raw bytes before songs were sent with their length up front, and is kept free.
+    END((byte) 3);
+
+    private final byte opcode;
+
+    MessageType(byte opcode) {
+        this.opcode = opcode;
+    }
+
+    /**
+     * Method to get the opcode which represents this message type on the wire.
+     *
+     * @return the opcode for this message type.
+     */
+    public byte getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * Method to look up the message type for an opcode read from the network.
+     *
+     * @param opcode the opcode that was read.
+     * @return the matching message type or null if the opcode is not recognised.
+     */
+    public static MessageType fromOpcode(byte opcode) {
+        for (MessageType type : values()) {
+            if (type.opcode == opcode) {
+                return type;
+            }
+        }
+
+        return null;
+    }
+}
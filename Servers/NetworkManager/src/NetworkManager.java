@@ -25,18 +25,13 @@ public class NetworkManager {
             DataOutputStream dataOutputStream = new DataOutputStream(communicationServerConnection.getOutputStream());
             DataInputStream dataInputStream = new DataInputStream(communicationServerConnection.getInputStream());
 
-            byte[] buffer = new byte[100];
-            int messageSize = 0;
             String messageReceived = null;
 
-            dataOutputStream.write(MessageConverter.stringToByte("SERVER"));
-            dataOutputStream.flush();
+            MessageConverter.writeMessage(dataOutputStream, "SERVER");
 
-            dataOutputStream.write(MessageConverter.stringToByte("SERVERTYPE:NETWORK:"+portNumber));
-            dataOutputStream.flush();
+            MessageConverter.writeMessage(dataOutputStream, "SERVERTYPE:NETWORK:"+portNumber);
 
-            messageSize = dataInputStream.read(buffer);
-            messageReceived = MessageConverter.byteToString(buffer, messageSize);
+            messageReceived = MessageConverter.readMessage(dataInputStream);
 
             if (!messageReceived.equals("TYPESTORED")) {
                 System.out.println("Communication server was unable to recognise this server - shutting down.");
@@ -44,8 +39,7 @@ public class NetworkManager {
             }
 
             while (true) {
-                messageSize = dataInputStream.read(buffer);
-                messageReceived = MessageConverter.byteToString(buffer, messageSize);
+                messageReceived = MessageConverter.readMessage(dataInputStream);
                 String[] messages = messageReceived.split(":");
                 switch (messages[0]) {
                     case "SPAWN":
@@ -59,15 +53,14 @@ public class NetworkManager {
                                 Runtime.getRuntime().exec("java -jar Multi-UseServer.jar streaming");
                                 break;
                             default:
-                                dataOutputStream.write(MessageConverter.stringToByte("ERROR:Type does not exist."));
+                                MessageConverter.writeMessage(dataOutputStream, "ERROR:Type does not exist.");
                                 break;
                         }
                         break;
                     default:
-                        dataOutputStream.write(MessageConverter.stringToByte("MESSAGEUNSUPPORTED"));
+                        MessageConverter.writeMessage(dataOutputStream, "MESSAGEUNSUPPORTED");
                         break;
                 }
-                dataOutputStream.flush();
             }
         }
         catch (IOException e) {
@@ -1,9 +1,9 @@
 import java.io.*;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
 
 /**
  * Class for handling connections to other servers.
@@ -13,21 +13,23 @@ import java.util.Random;
 public class ConnectionHandler implements Runnable {
     private Socket socket;
     private final String musicStorage;
-    private final String loginStorage;
     private final String fileSeparator;
     private final LoginDetailsList loginDetailsList;
     private ServerConnectionDetails communicationServer;
     private DataInputStream dataInputStream;
     private DataOutputStream dataOutputStream;
     private ConnectionState connectionState;
-    private RecentSongs recentSongs;
+    private SongPopularity songPopularity;
+    private SongChecksums songChecksums;
+    private SongCatalog songCatalog;
 
-    public ConnectionHandler(Socket socket, String musicStorage, String loginStorage, ServerConnectionDetails communicationServer) {
+    public ConnectionHandler(Socket socket, String musicStorage, ServerConnectionDetails communicationServer) {
         this.socket = socket;
         this.communicationServer = communicationServer;
         this.musicStorage = musicStorage;
-        this.loginStorage = loginStorage;
-        this.recentSongs = RecentSongs.getInstance();
+        this.songPopularity = SongPopularity.getInstance();
+        this.songChecksums = SongChecksums.getInstance();
+        this.songCatalog = SongCatalog.getInstance();
         this.fileSeparator = System.getProperty("file.separator");
         this.loginDetailsList = LoginDetailsList.getInstance();
     }
@@ -48,117 +50,140 @@ public class ConnectionHandler implements Runnable {
     }
 
     private void doMessagePump() {
-        byte[] buffer = new byte[200];
-        int bytesRead = 0;
-
         try {
             while (connectionState != ConnectionState.DISCONNECTING) {
-                buffer = new byte[200];
-                bytesRead = dataInputStream.read(buffer);
-
-                //convert message to string for easier handling
-                String messageToProcess = MessageConverter.byteToString(buffer, bytesRead);
+                //read the next whole message sent by the server
+                String messageToProcess = MessageConverter.readMessage(dataInputStream);
 
                 String[] arguments = messageToProcess.split(":");
 
                 switch (arguments[0]) {
                     case "DISCONNECT":
                         connectionState = ConnectionState.DISCONNECTING;
-                        dataOutputStream.write(MessageConverter.stringToByte("DISCONNECT"));
+                        MessageConverter.writeMessage(dataOutputStream, "DISCONNECT");
+                        break;
+
+                    case "HEARTBEAT":
+                        //lets pooled connections check that we are still here.
+                        MessageConverter.writeMessage(dataOutputStream, "HEARTBEAT");
+                        break;
+
+                    case "CATALOGVERSION":
+                        //lets streaming servers tell whether the list of songs has changed.
+                        MessageConverter.writeMessage(dataOutputStream, "VERSION:" + songCatalog.getVersion());
+                        break;
+
+                    case "CHANGES":
+                        //lets streaming servers keep their copy of the song list up to date without fetching all of it.
+                        sendChanges(arguments);
+                        break;
+
+                    case "ACCOUNTCHANGES":
+                        //lets login servers forget the details they remember for accounts which have changed.
+                        sendAccountChanges(arguments);
                         break;
 
                     case "SEARCH":
                         //search list of files to see if any of them contain the search term
                         String toSend = searchSongs(arguments[1]);
                         if (toSend.startsWith("ERROR")) {
-                            buffer = MessageConverter.stringToByte(toSend);
+                            MessageConverter.writeMessage(dataOutputStream, toSend);
                         }
                         else {
-                            buffer = MessageConverter.stringToByte("TITLE:" + toSend);
+                            MessageConverter.writeMessage(dataOutputStream, "TITLE:" + toSend);
                         }
-                        dataOutputStream.write(buffer);
                         break;
 
                     case "SONGPLAYED":
                         //send the song file to the streaming server
                         String played = searchSongs(arguments[1]);
                         if (!played.startsWith("ERROR")) {
-                            recentSongs.addToRecents(played);
+                            songPopularity.played(played);
                         }
                         break;
 
                     case "SONGLIST":
+                        if (SongPage.isPaged(arguments)) {
+                            //a whole page of songs goes in a single message.
+                            SongPage page = SongPage.parse(arguments);
+                            String reply = page == null ? null : songCatalog.getPage(page);
+                            MessageConverter.writeMessage(dataOutputStream, reply == null ? "ERROR:Invalid page." : reply);
+                            break;
+                        }
+
                         List<String> songs = getAllSongs();
                         if (songs.size() == 0) {
-                            buffer = MessageConverter.stringToByte("ERROR:No songs");
-                            dataOutputStream.write(buffer);
+                            MessageConverter.writeMessage(dataOutputStream, "ERROR:No songs");
                         }
                         else {
                             for (String song : songs) {
-                                buffer = MessageConverter.stringToByte(song);
-                                dataOutputStream.write(buffer);
-                                dataOutputStream.flush();
-                                Thread.sleep(50);
+                                MessageConverter.writeMessage(dataOutputStream, song);
                             }
-                            buffer = MessageConverter.stringToByte("EOF:EOF:EOF");
-                            dataOutputStream.write(buffer);
-                            dataOutputStream.flush();
+                            MessageConverter.writeFrame(dataOutputStream, MessageType.END);
                         }
                         break;
 
                     case "ADD":
                         //add an account
-                        buffer = MessageConverter.stringToByte(processAddUser(arguments));
-                        dataOutputStream.write(buffer);
-                        dataOutputStream.flush();
-                        loginDetailsList.writeToFile(loginStorage);
+                        //the account is in the journal by the time it is acknowledged.
+                        MessageConverter.writeMessage(dataOutputStream, processAddUser(arguments));
                         break;
 
                     case "LOGIN":
                         //confirm that the user exists
-                        buffer = MessageConverter.stringToByte(processLogin(arguments));
-                        dataOutputStream.write(buffer);
+                        MessageConverter.writeMessage(dataOutputStream, processLogin(arguments));
                         break;
 
                     case "SONG":
                         //search list of files to see if any of them contain the search term
                         String toPlay = searchSongs(arguments[1]);
                         if (toPlay.startsWith("ERROR")) {
-                            buffer = MessageConverter.stringToByte(toPlay);
-                            dataOutputStream.write(buffer);
+                            MessageConverter.writeMessage(dataOutputStream, toPlay);
                         }
                         else {
-                            recentSongs.addToRecents(toPlay);
-                            dataOutputStream.write(MessageConverter.stringToByte("SONG"));
-                            dataOutputStream.flush();
-                            Thread.sleep(100);
-                            int amountRead = 0;
-                            byte[] songBuffer = new byte[4096];
-                            FileInputStream songIn = new FileInputStream(musicStorage + fileSeparator + toPlay);
-
-                            while ((amountRead = songIn.read(songBuffer, 0, songBuffer.length)) != -1) {
-                                dataOutputStream.write(songBuffer, 0, amountRead);
-                                dataOutputStream.flush();
+                            String songPath = musicStorage + fileSeparator + toPlay;
+                            FileChannel songIn = FileChannel.open(Paths.get(songPath));
+                            try {
+                                //the header tells the streaming server how many bytes to expect and how to check them.
+                                long checksum = songChecksums.getChecksum(songPath, songIn);
+                                if (!SongRange.isRanged(arguments)) {
+                                    //not counted as a play here, as streaming servers send SONGPLAYED for every song their clients play.
+                                    MessageConverter.writeSong(socket, dataOutputStream, songIn, checksum);
+                                }
+                                else {
+                                    //only part of the song was asked for, most likely to finish off a transfer which was cut off.
+                                    SongRange range = SongRange.parse(arguments, songIn.size());
+                                    if (range == null) {
+                                        MessageConverter.writeMessage(dataOutputStream, "ERROR:Invalid range.");
+                                    }
+                                    else {
+                                        MessageConverter.writeSong(socket, dataOutputStream, songIn, checksum, range);
+                                    }
+                                }
+                            }
+                            finally {
+                                songIn.close();
                             }
-
-                            Thread.sleep(100);
-                            dataOutputStream.write(MessageConverter.stringToByte("EOF:EOF:EOF"));
-                            dataOutputStream.flush();
                         }
                         break;
 
                     case "RECOMMENDATION" :
-                        buffer = MessageConverter.stringToByte("RECOMMENDATION:" + recentSongs.getRecommendation());
-                        dataOutputStream.write(buffer);
-                        dataOutputStream.flush();
+                        MessageConverter.writeMessage(dataOutputStream, "RECOMMENDATION:" + songPopularity.getRecommendation());
+                        break;
+
+                    case "TRENDING":
+                        //lets streaming servers fetch the songs people are playing before their clients ask for them.
+                        StringBuilder trending = new StringBuilder("TRENDING");
+                        for (String song : songPopularity.getTopSongs()) {
+                            trending.append('\n').append(song);
+                        }
+                        MessageConverter.writeMessage(dataOutputStream, trending.toString());
                         break;
 
                     default:
-                        buffer = MessageConverter.stringToByte("MESSAGEUNSUPPORTED");
-                        dataOutputStream.write(buffer);
+                        MessageConverter.writeMessage(dataOutputStream, "MESSAGEUNSUPPORTED");
                         break;
                 }
-                dataOutputStream.flush();
             }
 
             socket.close();
@@ -168,9 +193,6 @@ public class ConnectionHandler implements Runnable {
                 e.printStackTrace();
             }
         }
-        catch (InterruptedException e) {
-            e.printStackTrace();
-        }
     }
 
     /**
@@ -219,16 +241,15 @@ public class ConnectionHandler implements Runnable {
             String userName = arguments[1];
             String password = arguments[2];
 
-            if (loginDetailsList.userExists(userName)) {
+            //adding in one step means the username cannot be taken by someone signing up at the same moment.
+            if (loginDetailsList.addUser(userName, password)) {
+                toReturn = "ADDED";
+            }
+            else if (loginDetailsList.userExists(userName)) {
                 toReturn = "ERROR:Username already exists";
             }
             else {
-                if (loginDetailsList.addUser(userName, password)) {
-                    toReturn = "ADDED";
-                }
-                else {
-                    toReturn = "ERROR:Unable to create account";
-                }
+                toReturn = "ERROR:Unable to create account";
             }
         }
 
@@ -242,25 +263,81 @@ public class ConnectionHandler implements Runnable {
      * @return the message to be returned to the streaming server.
      */
     private String searchSongs(String songToFind) {
-        Random randomNumberGenerator = new Random(System.currentTimeMillis());
-        File songLocation = new File(musicStorage);
-        String[] songs = songLocation.list();
-        List<String> songsFound = new ArrayList<String>();
+        //the best match comes first, and an exact title always wins so that asking for the rest of a song gets the same file back.
+        List<String> songsFound = songCatalog.search(songToFind);
+        if (songsFound.size() > 0) {
+            return songsFound.get(0);
+        }
+
+        return "ERROR:Song not in system.";
+    }
+
+    /**
+     * Sends the changes to the song list since the version the streaming server already has, packed many to a message
+     * and followed by an END frame.
+     * If those changes are no longer kept, every song is sent as added after a RESET so that the list can be rebuilt.
+     *
+     * @param arguments the arguments passed to the server to be processed.
+     * @throws IOException if the changes could not be sent.
+     */
+    private void sendChanges(String[] arguments) throws IOException {
+        long since = -1;
+        try {
+            if (arguments.length > 1) {
+                since = Long.parseLong(arguments[1]);
+            }
+        }
+        catch (NumberFormatException e) {
+            since = -1;
+        }
 
-        if (songs != null) {
+        List<String> changes = since < 0 ? null : songCatalog.getChangesSince(since);
+        if (changes != null) {
+            MessageConverter.writeMessage(dataOutputStream, "VERSION:" + (since + changes.size()));
+        }
+        else {
+            List<String> songs = new ArrayList<String>();
+            long version = songCatalog.getSongsAndVersion(songs);
+            MessageConverter.writeMessage(dataOutputStream, "RESET:" + version);
+            changes = new ArrayList<String>(songs.size());
             for (String song : songs) {
-                if (song.contains(songToFind)) {
-                    songsFound.add(song);
-                }
+                changes.add("ADDED:" + song);
             }
+        }
+
+        MessageConverter.writeLines(dataOutputStream, changes);
+        MessageConverter.writeFrame(dataOutputStream, MessageType.END);
+    }
 
-            if (songsFound.size() > 0) {
-                String songFound = songsFound.get(randomNumberGenerator.nextInt(songsFound.size()));
-                return songFound;
+    /**
+     * Sends the usernames of the accounts changed since the version the login server already has, packed many to a
+     * message and followed by an END frame. If those changes are no longer kept, RESET is sent with no usernames so that
+     * the login server forgets every account.
+     *
+     * @param arguments the arguments passed to the server to be processed.
+     * @throws IOException if the changes could not be sent.
+     */
+    private void sendAccountChanges(String[] arguments) throws IOException {
+        long since = -1;
+        try {
+            if (arguments.length > 1) {
+                since = Long.parseLong(arguments[1]);
             }
         }
+        catch (NumberFormatException e) {
+            since = -1;
+        }
 
-        return "ERROR:Song not in system.";
+        List<String> changes = since < 0 ? null : loginDetailsList.getChangesSince(since);
+        if (changes != null) {
+            MessageConverter.writeMessage(dataOutputStream, "VERSION:" + (since + changes.size()));
+            MessageConverter.writeLines(dataOutputStream, changes);
+        }
+        else {
+            MessageConverter.writeMessage(dataOutputStream, "RESET:" + loginDetailsList.getVersion());
+        }
+
+        MessageConverter.writeFrame(dataOutputStream, MessageType.END);
     }
 
     /**
@@ -269,15 +346,6 @@ public class ConnectionHandler implements Runnable {
      * @return the full list of songs.
      */
     private List<String> getAllSongs() {
-        File songLocation = new File(musicStorage);
-        String[] songs = songLocation.list();
-        List<String> list;
-        if (songs != null) {
-            list = Arrays.asList(songs);
-        }
-        else {
-            list = new ArrayList<String>();
-        }
-        return list;
+        return songCatalog.getSongs();
     }
 }
@@ -1,18 +1,43 @@
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Class to store a thread-safe list of login details.
  *
+ * Users are kept in a concurrent map keyed by username, so logins are looked up in constant time and many can be
+ * checked at once without waiting on each other. A new account is only added once it has been written to the journal,
+ * so nobody can log in to an account which a crash would lose; until then its username is held back so that nobody else
+ * can take it.
+ *
+ * Every change to an account bumps a version number, and the most recently changed usernames are kept so that login
+ * servers which remember who has logged in can find out whose details they should forget. Versions start at the time
+ * the server started, so versions from before a restart are always older and lead to everything being forgotten.
+ *
  * @author Bradley Davis
  */
 public class LoginDetailsList {
+    private static final int MAX_CHANGES = 1024;
+
     private static LoginDetailsList instance;
-    private final List<LoginDetails> loginDetails;
+    private final ConcurrentMap<String, LoginDetails> loginDetails;
+    private final Set<String> reserved;
+    private LoginJournal journal;
+    private final ArrayDeque<String> changes;
+    private long version;
 
     private LoginDetailsList() {
-        loginDetails = new ArrayList<LoginDetails>();
+        loginDetails = new ConcurrentHashMap<String, LoginDetails>();
+        reserved = ConcurrentHashMap.newKeySet();
+        journal = null;
+        changes = new ArrayDeque<String>();
+        version = System.currentTimeMillis();
     }
 
     public static LoginDetailsList getInstance() {
@@ -28,14 +53,8 @@ public class LoginDetailsList {
      * @param username the username to validate
      * @return whether or not the given username is already in use in the system.
      */
-    public synchronized boolean userExists(String username) {
-        for (LoginDetails user : loginDetails) {
-            if (user.getUsername().equals(username)) {
-                return true;
-            }
-        }
-
-        return false;
+    public boolean userExists(String username) {
+        return loginDetails.containsKey(username) || reserved.contains(username);
     }
 
     /**
@@ -44,38 +63,106 @@ public class LoginDetailsList {
      * @param userToVerify the username and password which have been entered.
      * @return whether or not the user was successfully validated.
      */
-    public synchronized boolean verifyUser(LoginDetails userToVerify) {
-        for (LoginDetails user : loginDetails) {
-            if (user.getUsername().equals(userToVerify.getUsername())) {
-                return user.getPassword().equals(userToVerify.getPassword());
-            }
-        }
-
-        return false;
+    public boolean verifyUser(LoginDetails userToVerify) {
+        LoginDetails user = loginDetails.get(userToVerify.getUsername());
+        return user != null && user.getPassword().equals(userToVerify.getPassword());
     }
 
     /**
-     * Allows for users to be added to the system so that new accounts can be created.
+     * Allows for users to be added to the system so that new accounts can be created. The user is written to the
+     * journal before this returns.
      *
      * @param username the username which the user wishes to use.
      * @param password the password which the user wishes to use.
-     * @return whether the user was added or not. Will return false if a given username already exists.
+     * @return whether the user was added or not. Will return false if a given username already exists or the user
+     *         could not be written to the journal.
      */
     public boolean addUser(String username, String password) {
-        if (userExists(username)) {
+        //reserving the username first means two people cannot sign up with the same username at once.
+        if (loginDetails.containsKey(username) || !reserved.add(username)) {
             return false;
         }
 
-        LoginDetails userToAdd = new LoginDetails(username, password);
-        synchronized (loginDetails) {
-            loginDetails.add(userToAdd);
+        try {
+            //the account may have been added between checking and reserving.
+            if (loginDetails.containsKey(username)) {
+                return false;
+            }
+
+            LoginDetails userToAdd = new LoginDetails(username, password);
+            if (journal != null) {
+                try {
+                    journal.append(userToAdd);
+                }
+                catch (IOException e) {
+                    //the account would be gone after a restart, so it is never added.
+                    e.printStackTrace();
+                    return false;
+                }
+            }
+
+            loginDetails.put(username, userToAdd);
+            changed(username);
+            return true;
+        }
+        finally {
+            //only let the username go once the account is in place, so the check above always sees one or the other.
+            reserved.remove(username);
+        }
+    }
+
+    private void addLoadedUser(LoginDetails user) {
+        loginDetails.putIfAbsent(user.getUsername(), user);
+    }
+
+    private void changed(String username) {
+        synchronized (changes) {
+            changes.addLast(username);
+            if (changes.size() > MAX_CHANGES) {
+                changes.removeFirst();
+            }
+            version++;
         }
+    }
 
-        return true;
+    /**
+     * Method to get the version of the accounts, which changes whenever an account is added or removed.
+     *
+     * @return the current version.
+     */
+    public long getVersion() {
+        synchronized (changes) {
+            return version;
+        }
+    }
+
+    /**
+     * Gets the usernames of the accounts changed after a given version, oldest first. A username may appear more than
+     * once if it changed more than once.
+     *
+     * @param since the version the caller already has.
+     * @return the usernames, or null if they are no longer kept and the caller should forget every account instead.
+     */
+    public List<String> getChangesSince(long since) {
+        synchronized (changes) {
+            if (since > version || version - since > changes.size()) {
+                return null;
+            }
+
+            //the newest change is at the end, so walk back from there.
+            List<String> toReturn = new ArrayList<String>((int) (version - since));
+            Iterator<String> newestFirst = changes.descendingIterator();
+            for (long i = since; i < version; i++) {
+                toReturn.add(newestFirst.next());
+            }
+            Collections.reverse(toReturn);
+            return toReturn;
+        }
     }
 
     /**
-     * Loads the list of usernames and passwords from the file.
+     * Loads the list of usernames and passwords from the file, along with any accounts created since it was last
+     * written, and starts journalling new accounts.
      *
      * @param filePath the path at which the file can be found.
      * @return whether the file could be loaded or not.
@@ -92,11 +179,15 @@ public class LoginDetailsList {
                 //file formatted as username, password.
                 while (currentLine != null) {
                     String[] details = currentLine.split(", ");
-                    addUser(details[0], details[1]);
+                    addLoadedUser(new LoginDetails(details[0], details[1]));
                     currentLine = bufferedReader.readLine();
                 }
 
                 fileReader.close();
+
+                journal = new LoginJournal(filePath);
+                journal.open(this::addLoadedUser);
+                journal.start(loginDetails::values);
             }
             else {
                 return false;
@@ -112,50 +203,4 @@ public class LoginDetailsList {
         }
         return true;
     }
-
-    /**
-     * Write the list of user details to the file.
-     *
-     * @param filePath the path of the user file.
-     * @return whether or not the file was written.
-     */
-    public boolean writeToFile(String filePath) {
-        File userDetailsFile = new File(filePath);
-        try {
-            if (!userDetailsFile.exists()) {
-                //if the login file does not exist, create it.
-                try {
-                    byte[] data = new byte[] {};
-                    FileOutputStream outputStream = new FileOutputStream(filePath);
-                    outputStream.write(data);
-                    outputStream.close();
-                }
-                catch (IOException e) {
-                    return false;
-                }
-            }
-
-            FileWriter fileWriter = new FileWriter(userDetailsFile);
-            BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
-
-            bufferedWriter.write(""); //first, empty the file.
-
-            synchronized (loginDetails) {
-                for (LoginDetails detail : loginDetails) {
-                    bufferedWriter.append(detail.getUsername());
-                    bufferedWriter.append(", ");
-                    bufferedWriter.append(detail.getPassword());
-                    bufferedWriter.newLine();
-                    bufferedWriter.flush();
-                }
-            }
-
-            bufferedWriter.close();
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
-        return true;
-    }
 }
@@ -0,0 +1,383 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Append-only journal of the accounts created since the login details file was last written.
+ *
+ * Creating an account appends one line to the journal rather than rewriting every user. Every so often a background
+ * thread compacts the journal into a fresh login details file, which is written beside the old one and moved into place
+ * so that a crash part way through leaves the old file and the journal as they were.
+ *
+ * Appends are committed in groups: a background thread waits up to {@link #GROUP_COMMIT_WAIT} milliseconds, or until
+ * {@link #GROUP_COMMIT_RECORDS} accounts are waiting, and then writes and syncs all of them at once. Each append
+ * returns only once its group has been written, so during a rush of sign-ups many accounts share one sync.
+ *
+ * How hard appends are pushed to disk is picked with the "journal.fsync" system property:
+ * - always syncs each group before its accounts are acknowledged, so an acknowledged account is never lost. The default.
+ * - interval syncs in the background every {@link #SYNC_INTERVAL} milliseconds, so a crash can lose the last few.
+ * - never leaves it to the operating system.
+ *
+ * @author Bradley Davis
+ */
+public class LoginJournal {
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String COMPACTING_SUFFIX = ".journal.old";
+    private static final String SNAPSHOT_SUFFIX = ".tmp";
+    private static final long SYNC_INTERVAL = 1000;
+    private static final long COMPACT_INTERVAL = 10 * 60 * 1000;
+    private static final int COMPACT_AFTER = 1000;
+    private static final long GROUP_COMMIT_WAIT = 2;
+    private static final int GROUP_COMMIT_RECORDS = 64;
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final File compactingFile;
+    private final String fsyncMode;
+    private final Object fileLock;
+    private FileChannel journal;
+    private int records;
+    private boolean unsynced;
+    private CommitGroup pending;
+
+    /**
+     * Constructor which sets all internal class variables.
+     *
+     * @param filePath the path of the login details file which the journal is compacted into.
+     */
+    public LoginJournal(String filePath) {
+        this.snapshotFile = new File(filePath);
+        this.journalFile = new File(filePath + JOURNAL_SUFFIX);
+        this.compactingFile = new File(filePath + COMPACTING_SUFFIX);
+        this.fsyncMode = readFsyncMode();
+        this.fileLock = new Object();
+        this.records = 0;
+        this.unsynced = false;
+        this.pending = new CommitGroup();
+    }
+
+    /**
+     * Replays the accounts which were journalled but not yet compacted, then opens the journal for appending. Must be
+     * called after the login details file has been loaded.
+     *
+     * @param user told about each account in the journal, oldest first.
+     * @throws IOException if the journal could not be read or opened.
+     */
+    public void open(Consumer<LoginDetails> user) throws IOException {
+        Consumer<LoginDetails> counted = user.andThen(replayed -> records++);
+        //an old journal is only left behind if a compaction was cut short, and it is older than the current journal.
+        if (compactingFile.exists()) {
+            replay(compactingFile, counted);
+        }
+        long validLength = journalFile.exists() ? replay(journalFile, counted) : 0;
+
+        synchronized (fileLock) {
+            journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            //drop whatever half written line a crash left at the end, so the next account starts on a line of its own.
+            journal.truncate(validLength);
+            journal.position(validLength);
+        }
+    }
+
+    /**
+     * Starts the background threads which commit, sync and compact the journal. If a compaction was cut short last time
+     * the server ran, it is finished first.
+     *
+     * @param users gets every account currently in the system, to be written to the login details file.
+     */
+    public void start(Supplier<Collection<LoginDetails>> users) {
+        if (compactingFile.exists()) {
+            compact(users);
+        }
+
+        Thread journalThread = new Thread(() -> {
+            long lastCompacted = System.currentTimeMillis();
+            while (true) {
+                try {
+                    Thread.sleep(SYNC_INTERVAL);
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+
+                if (fsyncMode.equals("interval")) {
+                    sync();
+                }
+
+                long now = System.currentTimeMillis();
+                if (needsCompacting(now - lastCompacted >= COMPACT_INTERVAL)) {
+                    compact(users);
+                    lastCompacted = now;
+                }
+            }
+        }, "LoginJournal");
+        journalThread.setDaemon(true);
+        journalThread.start();
+
+        Thread commitThread = new Thread(() -> {
+            while (true) {
+                try {
+                    commit(awaitGroup());
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "LoginJournal-commit");
+        commitThread.setDaemon(true);
+        commitThread.start();
+    }
+
+    /**
+     * Appends an account to the journal, waiting until the group it joins has been written, and synced if every group
+     * is to be synced.
+     *
+     * @param user the account which has been created.
+     * @throws IOException if the group the account was in could not be written.
+     */
+    public synchronized void append(LoginDetails user) throws IOException {
+        CommitGroup group = pending;
+        group.lines.add(formatLine(user));
+        notifyAll();
+
+        while (!group.done) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                throw new IOException("Interrupted while waiting for the account to be written.");
+            }
+        }
+
+        if (group.failed) {
+            throw new IOException("Unable to write the account to the login journal.");
+        }
+    }
+
+    /**
+     * Waits for accounts to be appended, then gives them a little longer for others to join them unless the group is
+     * already full. There is no point in waiting if groups are not being synced.
+     *
+     * @return the group to commit, which later appends will no longer join.
+     * @throws InterruptedException if the commit thread was interrupted.
+     */
+    private synchronized CommitGroup awaitGroup() throws InterruptedException {
+        while (pending.lines.isEmpty()) {
+            wait();
+        }
+
+        if (fsyncMode.equals("always")) {
+            long deadline = System.nanoTime() + GROUP_COMMIT_WAIT * 1000000;
+            long remaining = deadline - System.nanoTime();
+            while (pending.lines.size() < GROUP_COMMIT_RECORDS && remaining > 0) {
+                wait(remaining / 1000000, (int) (remaining % 1000000));
+                remaining = deadline - System.nanoTime();
+            }
+        }
+
+        CommitGroup group = pending;
+        pending = new CommitGroup();
+        return group;
+    }
+
+    /**
+     * Writes a group of accounts to the journal in one go and syncs it once, then lets everyone in the group know.
+     *
+     * @param group the accounts to write.
+     */
+    private void commit(CommitGroup group) {
+        int length = 0;
+        for (byte[] line : group.lines) {
+            length += line.length;
+        }
+        ByteBuffer lines = ByteBuffer.allocate(length);
+        for (byte[] line : group.lines) {
+            lines.put(line);
+        }
+        lines.flip();
+
+        boolean failed = false;
+        synchronized (fileLock) {
+            long start = 0;
+            try {
+                start = journal.position();
+                while (lines.hasRemaining()) {
+                    journal.write(lines);
+                }
+                if (fsyncMode.equals("always")) {
+                    journal.force(false);
+                }
+                else {
+                    unsynced = true;
+                }
+                records += group.lines.size();
+            }
+            catch (IOException e) {
+                //take back whatever part of the group made it, so the next group is not joined onto it.
+                e.printStackTrace();
+                failed = true;
+                try {
+                    journal.truncate(start);
+                }
+                catch (IOException truncateFailed) {
+                    truncateFailed.printStackTrace();
+                }
+            }
+        }
+
+        synchronized (this) {
+            group.failed = failed;
+            group.done = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Syncs any appends which have not been synced yet.
+     */
+    private void sync() {
+        synchronized (fileLock) {
+            if (!unsynced) {
+                return;
+            }
+
+            try {
+                journal.force(false);
+                unsynced = false;
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private boolean needsCompacting(boolean due) {
+        synchronized (fileLock) {
+            return records >= COMPACT_AFTER || (due && records > 0);
+        }
+    }
+
+    /**
+     * Writes every account to a new login details file and throws away the journal which it replaces.
+     *
+     * The journal is first moved aside and a new one started, so that accounts can still be created while the file is
+     * written. An account is only added to the system once it has been journalled, so some of the accounts in the old
+     * journal may not be there yet; they are read back from the old journal and written alongside everyone else, so the
+     * new file holds all of them.
+     *
+     * @param users gets every account currently in the system.
+     */
+    private void compact(Supplier<Collection<LoginDetails>> users) {
+        try {
+            synchronized (fileLock) {
+                //if the old journal is still there, the last compaction failed and is tried again as it was.
+                if (!compactingFile.exists()) {
+                    journal.force(false);
+                    journal.close();
+                    Files.move(journalFile.toPath(), compactingFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    records = 0;
+                    unsynced = false;
+                }
+            }
+
+            Map<String, LoginDetails> toWrite = new LinkedHashMap<String, LoginDetails>();
+            for (LoginDetails user : users.get()) {
+                toWrite.put(user.getUsername(), user);
+            }
+            //accounts which have been journalled but not yet added to the system are only in the old journal.
+            replay(compactingFile, user -> toWrite.putIfAbsent(user.getUsername(), user));
+
+            File newSnapshot = new File(snapshotFile.getPath() + SNAPSHOT_SUFFIX);
+            FileChannel snapshot = FileChannel.open(newSnapshot.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+            try {
+                for (LoginDetails user : toWrite.values()) {
+                    ByteBuffer line = ByteBuffer.wrap(formatLine(user));
+                    while (line.hasRemaining()) {
+                        snapshot.write(line);
+                    }
+                }
+                snapshot.force(false);
+            }
+            finally {
+                snapshot.close();
+            }
+
+            Files.move(newSnapshot.toPath(), snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            compactingFile.delete();
+        }
+        catch (IOException e) {
+            System.out.println("Unable to compact the login journal - will try again later.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the accounts from a journal. Only lines which were finished are read, as a crash part way through an append
+     * can leave the last line cut short.
+     *
+     * @param file the journal to read.
+     * @param user told about each account, oldest first.
+     * @return how many bytes of the journal hold finished lines.
+     * @throws IOException if the journal could not be read.
+     */
+    private long replay(File file, Consumer<LoginDetails> user) throws IOException {
+        byte[] contents = Files.readAllBytes(file.toPath());
+        int lineStart = 0;
+
+        for (int i = 0; i < contents.length; i++) {
+            if (contents[i] == '\n') {
+                //file formatted as username, password - the same as the login details file.
+                String[] details = new String(contents, lineStart, i - lineStart, StandardCharsets.UTF_8).split(", ");
+                if (details.length >= 2) {
+                    user.accept(new LoginDetails(details[0], details[1]));
+                }
+                lineStart = i + 1;
+            }
+        }
+
+        return lineStart;
+    }
+
+    private static byte[] formatLine(LoginDetails user) {
+        return (user.getUsername() + ", " + user.getPassword() + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readFsyncMode() {
+        String mode = System.getProperty("journal.fsync", "always").toLowerCase();
+        if (!mode.equals("always") && !mode.equals("interval") && !mode.equals("never")) {
+            System.out.println("Unknown journal.fsync " + mode + " - resorting to always.");
+            mode = "always";
+        }
+        return mode;
+    }
+
+    /**
+     * Accounts which are written to the journal together.
+     */
+    private static class CommitGroup {
+        private final List<byte[]> lines;
+        private boolean done;
+        private boolean failed;
+
+        private CommitGroup() {
+            this.lines = new ArrayList<byte[]>();
+            this.done = false;
+            this.failed = false;
+        }
+    }
+}
@@ -1,11 +1,27 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 /**
  * Allows for the conversion of various data types to bytes to send over the network.
  *
+ * Messages are sent as frames so that a message is always read back whole, no matter how TCP splits or joins the
+ * writes. Each frame is a 4 byte big endian payload length, a 1 byte opcode (see {@link MessageType}) and the payload.
+ *
  * @author Bradley Davis
  */
 public class MessageConverter {
+    public static final int HEADER_SIZE = 5;
+    public static final int MAX_FRAME_SIZE = 1024 * 1024;
+    public static final int FILE_CHUNK_SIZE = 64 * 1024;
+
     /**
      * This method converts a byte array to an UTF 8 string and converts any characters that aren't in the character set
      * to a standard character that is in the set.
@@ -43,4 +59,193 @@ public class MessageConverter {
 
         return s.getBytes(StandardCharsets.UTF_8);
     }
+
+    /**
+     * Writes a text message to the stream as a single frame and flushes it.
+     *
+     * @param out the stream to write the message to.
+     * @param message the message to be sent.
+     * @throws IOException if the stream could not be written to.
+     */
+    public static void writeMessage(DataOutputStream out, String message) throws IOException {
+        byte[] payload = stringToByte(message);
+        writeFrame(out, MessageType.TEXT, payload, 0, payload.length);
+    }
+
+    /**
+     * Writes a frame to the stream and flushes it. The header and payload are written together so that small frames
+     * go out in a single segment.
+     *
+     * @param out the stream to write the frame to.
+     * @param type the type of the frame.
+     * @param payload the buffer holding the payload.
+     * @param offset the position in the buffer that the payload starts at.
+     * @param length the number of payload bytes to send.
+     * @throws IOException if the stream could not be written to.
+     */
+    public static void writeFrame(DataOutputStream out, MessageType type, byte[] payload, int offset, int length) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + length);
+        frame.putInt(length);
+        frame.put(type.getOpcode());
+        frame.put(payload, offset, length);
+        out.write(frame.array(), 0, frame.position());
+        out.flush();
+    }
+
+    /**
+     * Writes a frame with no payload to the stream, such as the END frame which follows the lines sent for SONGLIST, CHANGES and ACCOUNTCHANGES.
+     *
+     * @param out the stream to write the frame to.
+     * @param type the type of the frame.
+     * @throws IOException if the stream could not be written to.
+     */
+    public static void writeFrame(DataOutputStream out, MessageType type) throws IOException {
+        writeFrame(out, type, new byte[0], 0, 0);
+    }
+
+    /**
+     * Writes a run of text lines, such as changes to the song list, packing as many lines into each TEXT frame as will
+     * comfortably fit. The lines are separated by a newline, so should not contain one themselves.
+     *
+     * @param out the stream to write the lines to.
+     * @param lines the lines to send.
+     * @throws IOException if the stream could not be written to.
+     */
+    public static void writeLines(DataOutputStream out, List<String> lines) throws IOException {
+        ByteArrayOutputStream batch = new ByteArrayOutputStream(FILE_CHUNK_SIZE);
+        for (String line : lines) {
+            byte[] bytes = stringToByte(line);
+            if (batch.size() > 0 && batch.size() + bytes.length + 1 > FILE_CHUNK_SIZE) {
+                writeFrame(out, MessageType.TEXT, batch.toByteArray(), 0, batch.size());
+                batch.reset();
+            }
+            if (batch.size() > 0) {
+                batch.write('\n');
+            }
+            batch.write(bytes);
+        }
+
+        if (batch.size() > 0) {
+            writeFrame(out, MessageType.TEXT, batch.toByteArray(), 0, batch.size());
+        }
+    }
+
+    /**
+     * Writes a song to the socket: a SONG:[length]:[checksum] message followed by exactly that many raw bytes.
+     *
+     * @param socket the socket to send the song on.
+     * @param out the stream for the socket.
+     * @param song the song to send.
+     * @param checksum the CRC32 of the song.
+     * @throws IOException if the file could not be read or the socket could not be written to.
+     */
+    public static void writeSong(Socket socket, DataOutputStream out, FileChannel song, long checksum) throws IOException {
+        long length = song.size();
+        writeMessage(out, "SONG:" + length + ":" + SongChecksums.format(checksum));
+        writeFileRange(socket, out, song, 0, length);
+    }
+
+    /**
+     * Writes part of a song to the socket: a SONG:[length]:[checksum]:[offset]:[total] message followed by exactly
+     * [length] raw bytes starting [offset] bytes into the song. The checksum is for the whole song, so that whoever
+     * puts the parts back together can check the result.
+     *
+     * @param socket the socket to send the song on.
+     * @param out the stream for the socket.
+     * @param song the song to send.
+     * @param checksum the CRC32 of the whole song.
+     * @param range the part of the song to send.
+     * @throws IOException if the file could not be read or the socket could not be written to.
+     */
+    public static void writeSong(Socket socket, DataOutputStream out, FileChannel song, long checksum, SongRange range) throws IOException {
+        writeMessage(out, "SONG:" + range.getLength() + ":" + SongChecksums.format(checksum) + ":" + range.getOffset() + ":" + song.size());
+        writeFileRange(socket, out, song, range.getOffset(), range.getLength());
+    }
+
+    /**
+     * Writes raw bytes from a file to the socket, reading from the given position without moving the file's position.
+     *
+     * Where the socket has a channel the file is handed to the kernel with {@link FileChannel#transferTo} so the bytes
+     * never get copied through the heap. Otherwise they are copied through a buffer.
+     *
+     * @param socket the socket to send the bytes on.
+     * @param out the stream for the socket.
+     * @param file the file to send from.
+     * @param offset the position in the file to start from.
+     * @param length the number of bytes to send.
+     * @throws IOException if the file could not be read or the socket could not be written to.
+     */
+    private static void writeFileRange(Socket socket, DataOutputStream out, FileChannel file, long offset, long length) throws IOException {
+        SocketChannel channel = socket.getChannel();
+        long position = offset;
+        long end = offset + length;
+
+        if (channel == null) {
+            ByteBuffer chunk = ByteBuffer.allocate(FILE_CHUNK_SIZE);
+            while (position < end) {
+                chunk.clear();
+                chunk.limit((int) Math.min(FILE_CHUNK_SIZE, end - position));
+                int amountRead = file.read(chunk, position);
+                if (amountRead == -1) {
+                    throw new IOException("File shrank while it was being sent.");
+                }
+                out.write(chunk.array(), 0, amountRead);
+                position += amountRead;
+            }
+            out.flush();
+            return;
+        }
+
+        //transferTo may send less than we asked for, so keep going until the whole range has gone.
+        while (position < end) {
+            long sent = file.transferTo(position, end - position, channel);
+            if (sent <= 0 && position >= file.size()) {
+                throw new IOException("File shrank while it was being sent.");
+            }
+            position += sent;
+        }
+    }
+
+    /**
+     * Reads a single whole frame from the stream, blocking until all of it has arrived.
+     *
+     * @param in the stream to read the frame from.
+     * @return the frame that was read.
+     * @throws IOException if the stream closed part way through a frame or the frame was malformed.
+     */
+    public static Frame readFrame(DataInputStream in) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        in.readFully(header);
+        ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+
+        int length = headerBuffer.getInt();
+        byte opcode = headerBuffer.get();
+        MessageType type = MessageType.fromOpcode(opcode);
+
+        if (type == null) {
+            throw new IOException("Unknown opcode received: " + opcode);
+        }
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Frame length out of range: " + length);
+        }
+
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(type, payload);
+    }
+
+    /**
+     * Reads a single text message from the stream.
+     *
+     * @param in the stream to read the message from.
+     * @return the message that was read.
+     * @throws IOException if the stream closed part way through a frame or the frame was not a text frame.
+     */
+    public static String readMessage(DataInputStream in) throws IOException {
+        Frame frame = readFrame(in);
+        if (frame.getType() != MessageType.TEXT) {
+            throw new IOException("Expected a text frame but received " + frame.getType() + ".");
+        }
+        return frame.getText();
+    }
 }
@@ -0,0 +1,286 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe index of the songs in the music bank, so that requests do not need to list the directory.
+ *
+ * The catalog is loaded once when the server starts and then kept up to date by watching the directory for changes.
+ * As a watch can miss changes, for example on network file systems, the directory is also rescanned now and then.
+ * Every change to the catalog bumps its version number, and the most recent changes are kept so that servers holding a
+ * copy of the catalog can catch up without fetching all of it again. Versions start at the time the server started, so
+ * versions from before a restart are always older and lead to the whole catalog being fetched again.
+ *
+ * This is a singleton class to ensure that there is one catalog which is common for this server.
+ *
+ * @author Bradley Davis
+ */
+public class SongCatalog {
+    private static final long RESCAN_INTERVAL = 60000;
+    private static final int MAX_CHANGES = 1024;
+
+    private static SongCatalog instance = null;
+    private final ConcurrentSkipListSet<String> songs;
+    private final AtomicLong version;
+    private final SongSearchIndex searchIndex;
+    private final ArrayDeque<String> changes;
+    private volatile List<String> snapshot;
+    private File musicStorage;
+
+    private SongCatalog() {
+        songs = new ConcurrentSkipListSet<String>();
+        version = new AtomicLong(System.currentTimeMillis());
+        searchIndex = new SongSearchIndex();
+        changes = new ArrayDeque<String>();
+        snapshot = Collections.emptyList();
+    }
+
+    public static synchronized SongCatalog getInstance() {
+        if (instance == null) {
+            instance = new SongCatalog();
+        }
+        return instance;
+    }
+
+    /**
+     * Loads the catalog from the music bank and starts watching it for changes.
+     *
+     * @param musicStorage the directory holding the songs.
+     */
+    public synchronized void load(String musicStorage) {
+        this.musicStorage = new File(musicStorage);
+        rescan();
+        System.out.println("Loaded " + songs.size() + " songs into the catalog.");
+
+        Thread watcher = new Thread(this::watch, "SongCatalog-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Method to get the version of the catalog, which changes whenever a song is added or removed.
+     *
+     * @return the current version.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Gets every song in the catalog.
+     *
+     * @return an unmodifiable, sorted list of song titles.
+     */
+    public List<String> getSongs() {
+        List<String> current = snapshot;
+        if (current == null) {
+            //rebuilt under the lock, so a song added part way through cannot leave an out of date list in place.
+            synchronized (this) {
+                current = snapshot;
+                if (current == null) {
+                    current = Collections.unmodifiableList(new ArrayList<String>(songs));
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Gets the changes made to the catalog after a given version, oldest first. Each change is either
+     * "ADDED:[song title]" or "REMOVED:[song title]".
+     *
+     * @param since the version the caller already has.
+     * @return the changes, or null if they are no longer kept and the whole catalog needs to be fetched instead.
+     */
+    public synchronized List<String> getChangesSince(long since) {
+        long current = version.get();
+        if (since > current || current - since > changes.size()) {
+            return null;
+        }
+
+        //the newest change is at the end, so walk back from there.
+        List<String> toReturn = new ArrayList<String>((int) (current - since));
+        Iterator<String> newestFirst = changes.descendingIterator();
+        for (long i = since; i < current; i++) {
+            toReturn.add(newestFirst.next());
+        }
+        Collections.reverse(toReturn);
+        return toReturn;
+    }
+
+    /**
+     * Gets every song in the catalog along with the version of the catalog they came from.
+     *
+     * @param songsOut the list to fill with every song in the catalog.
+     * @return the version of the catalog.
+     */
+    public synchronized long getSongsAndVersion(List<String> songsOut) {
+        songsOut.addAll(getSongs());
+        return version.get();
+    }
+
+    /**
+     * Builds the reply for one page of the catalog, so that the songs and version in it always match.
+     *
+     * @param page the page asked for.
+     * @return the reply, or null if the page starts past the end of the catalog.
+     */
+    public synchronized String getPage(SongPage page) {
+        return page.build(getSongs(), version.get());
+    }
+
+    /**
+     * Checks whether a song is in the catalog.
+     *
+     * @param song the exact title of the song.
+     * @return whether the song is in the catalog.
+     */
+    public boolean contains(String song) {
+        return songs.contains(song);
+    }
+
+    /**
+     * Finds every song whose title contains the search term.
+     *
+     * @param term the term to search for.
+     * @return the titles which matched, best match first.
+     */
+    public List<String> search(String term) {
+        return searchIndex.search(term);
+    }
+
+    private synchronized void add(String song) {
+        if (songs.add(song)) {
+            searchIndex.add(song);
+            changed("ADDED:" + song);
+        }
+    }
+
+    private synchronized void remove(String song) {
+        if (songs.remove(song)) {
+            searchIndex.remove(song);
+            changed("REMOVED:" + song);
+        }
+    }
+
+    private void changed(String change) {
+        snapshot = null;
+        changes.addLast(change);
+        if (changes.size() > MAX_CHANGES) {
+            changes.removeFirst();
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Lists the directory and brings the catalog in line with it.
+     */
+    private synchronized void rescan() {
+        String[] files = musicStorage.list();
+        Set<String> found = new HashSet<String>();
+        if (files != null) {
+            for (String song : files) {
+                if (isSong(song)) {
+                    found.add(song);
+                }
+            }
+        }
+
+        for (String song : songs) {
+            if (!found.contains(song)) {
+                remove(song);
+            }
+        }
+        for (String song : found) {
+            add(song);
+        }
+    }
+
+    private boolean isSong(String name) {
+        return new File(musicStorage, name).isFile();
+    }
+
+    /**
+     * Watches the music bank for songs being added or removed. This runs on its own thread for as long as the server
+     * is running.
+     */
+    private void watch() {
+        WatchService watchService = null;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            musicStorage.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        catch (IOException e) {
+            System.out.println("Unable to watch the music bank - falling back to rescanning it.");
+            watchService = null;
+        }
+
+        long lastRescan = System.currentTimeMillis();
+        while (true) {
+            try {
+                if (watchService == null) {
+                    Thread.sleep(RESCAN_INTERVAL);
+                }
+                else {
+                    WatchKey key = watchService.poll(RESCAN_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        handleEvents(key);
+                        if (!key.reset()) {
+                            System.out.println("Music bank can no longer be watched - falling back to rescanning it.");
+                            watchService.close();
+                            watchService = null;
+                        }
+                    }
+                }
+            }
+            catch (InterruptedException | ClosedWatchServiceException | IOException e) {
+                return;
+            }
+
+            if (System.currentTimeMillis() - lastRescan >= RESCAN_INTERVAL) {
+                rescan();
+                lastRescan = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private void handleEvents(WatchKey key) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                //we missed some changes, so look at everything again.
+                rescan();
+                continue;
+            }
+
+            String song = ((Path) event.context()).toString();
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                remove(song);
+            }
+            else if (isSong(song)) {
+                add(song);
+            }
+            else {
+                //a directory or something else which is not a song.
+                remove(song);
+            }
+        }
+    }
+}
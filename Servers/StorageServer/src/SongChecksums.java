@@ -0,0 +1,111 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Thread-safe cache of the CRC32 checksums of song files, so a song only has to be read through once to checksum it.
+ *
+ * An entry is only used while the file still has the size and modification time it had when it was checksummed.
+ *
+ * This is a singleton class to ensure that there is one cache which is common for this server.
+ *
+ * @author Bradley Davis
+ */
+public class SongChecksums {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static SongChecksums instance = null;
+    private final ConcurrentHashMap<String, Entry> checksums;
+
+    private SongChecksums() {
+        checksums = new ConcurrentHashMap<String, Entry>();
+    }
+
+    public static synchronized SongChecksums getInstance() {
+        if (instance == null) {
+            instance = new SongChecksums();
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the checksum of a song, working it out if it has not been seen or has changed since.
+     *
+     * @param path the path to the song.
+     * @param song the open song file.
+     * @return the CRC32 of the whole file.
+     * @throws IOException if the file could not be read.
+     */
+    public long getChecksum(String path, FileChannel song) throws IOException {
+        File file = new File(path);
+        long size = song.size();
+        long lastModified = file.lastModified();
+
+        Entry entry = checksums.get(path);
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            return entry.checksum;
+        }
+
+        long checksum = compute(song);
+        checksums.put(path, new Entry(size, lastModified, checksum));
+        return checksum;
+    }
+
+    /**
+     * Works out the checksum of a whole file without using the cache.
+     *
+     * @param song the open file.
+     * @return the CRC32 of the whole file.
+     * @throws IOException if the file could not be read.
+     */
+    public static long compute(FileChannel song) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        long position = 0;
+        int amountRead;
+        while ((amountRead = song.read(buffer, position)) > 0) {
+            buffer.flip();
+            crc.update(buffer);
+            buffer.clear();
+            position += amountRead;
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * Records the checksum of a song which has been worked out elsewhere, such as while it was being received.
+     *
+     * @param path the path to the song.
+     * @param checksum the CRC32 of the whole file.
+     */
+    public void putChecksum(String path, long checksum) {
+        File file = new File(path);
+        checksums.put(path, new Entry(file.length(), file.lastModified(), checksum));
+    }
+
+    /**
+     * Formats a checksum the way it is sent over the network.
+     *
+     * @param checksum the checksum to format.
+     * @return the checksum as 8 hex digits.
+     */
+    public static String format(long checksum) {
+        return String.format("%08x", checksum);
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final long checksum;
+
+        private Entry(long size, long lastModified, long checksum) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+    }
+}
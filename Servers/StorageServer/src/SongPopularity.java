@@ -0,0 +1,241 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread-safe tracker of which songs are popular right now, used for trending songs and recommendations.
+ *
+ * Each song has a score which goes up by one every time it is played and halves every half-life, so a song played a lot
+ * yesterday gives way to one which is being played now. The half-life is picked in seconds with the
+ * "popularity.halfLife" system property. Scores are kept as the score at the time of the last play, and are decayed to
+ * the current time whenever they are read or played, so a play only touches the song's own score. Scores are doubles,
+ * so even the steady score of a song played thousands of times a second still goes up by one with each play.
+ *
+ * Scores are counted in a Count-Min sketch: a few rows of counters, where each song updates one counter per row picked
+ * by hashing its title. A song's score is the smallest of its counters, which can only be too high, and only by a small
+ * fraction of all plays. Counters are updated without locking, so plays from many connections do not wait on each
+ * other, and memory stays the same however many songs there are.
+ *
+ * Alongside the sketch the {@link #TOP_SONGS} highest scoring songs are kept with their scores. A song only joins them
+ * by scoring more than the lowest of them, so one odd request cannot push out a song which is genuinely popular. Only
+ * joining takes a lock; plays of songs which are already there, or which are nowhere near, do not.
+ *
+ * This is a singleton class to ensure that there is one tracker which is common for this server.
+ *
+ * @author Bradley Davis
+ */
+public class SongPopularity {
+    private static final int TOP_SONGS = 20;
+    private static final int SKETCH_ROWS = 4;
+    private static final int SKETCH_WIDTH = 4096;
+    private static final long DEFAULT_HALF_LIFE_SECONDS = 6 * 60 * 60;
+
+    private static SongPopularity instance = null;
+    private final double decayPerSecond;
+    private final long startTime;
+    private final AtomicReferenceArray<Score> sketch;
+    private final Map<String, Score> topSongs;
+    private volatile Score topFloor;
+
+    private SongPopularity() {
+        decayPerSecond = Math.log(2) / readHalfLifeSeconds();
+        startTime = System.nanoTime();
+        sketch = new AtomicReferenceArray<Score>(SKETCH_ROWS * SKETCH_WIDTH);
+        for (int i = 0; i < sketch.length(); i++) {
+            sketch.set(i, Score.NONE);
+        }
+        topSongs = new ConcurrentHashMap<String, Score>();
+        topFloor = Score.NONE;
+    }
+
+    public static SongPopularity getInstance() {
+        if (instance == null) {
+            instance = new SongPopularity();
+        }
+        return instance;
+    }
+
+    /**
+     * Counts a play of a song.
+     *
+     * @param song the title of the song which was played.
+     */
+    public void played(String song) {
+        int now = now();
+        double score = Double.MAX_VALUE;
+        long hash = spread(song.hashCode());
+        //each row picks its counter from a different mix of the same hash.
+        int step = (int) (hash >>> 32) | 1;
+        for (int row = 0; row < SKETCH_ROWS; row++) {
+            int column = ((int) hash + row * step) & (SKETCH_WIDTH - 1);
+            score = Math.min(score, addPlay(row * SKETCH_WIDTH + column, now));
+        }
+
+        Score latest = new Score(score, now);
+        if (topSongs.computeIfPresent(song, (title, previous) -> latest) != null) {
+            return;
+        }
+        if (score <= decay(topFloor, now)) {
+            return;
+        }
+
+        synchronized (topSongs) {
+            topSongs.put(song, latest);
+            if (topSongs.size() > TOP_SONGS) {
+                topSongs.remove(findLowest(now));
+            }
+            //scores in the top songs are only replaced by newer ones, so the floor is only ever out of date on the low side.
+            topFloor = topSongs.size() < TOP_SONGS ? Score.NONE : topSongs.get(findLowest(now));
+        }
+    }
+
+    /**
+     * Gets the songs which are the most popular right now.
+     *
+     * @return the most popular songs, most popular first.
+     */
+    public List<String> getTopSongs() {
+        int now = now();
+        List<Map.Entry<String, Score>> entries = new ArrayList<Map.Entry<String, Score>>(topSongs.entrySet());
+        entries.sort((first, second) -> Double.compare(decay(second.getValue(), now), decay(first.getValue(), now)));
+
+        List<String> songs = new ArrayList<String>(entries.size());
+        for (Map.Entry<String, Score> entry : entries) {
+            songs.add(entry.getKey());
+        }
+        return songs;
+    }
+
+    /**
+     * Get a song recommendation to be sent to the user. Songs are picked at random from the most popular songs, with
+     * each song's chance in proportion to its score.
+     *
+     * @return a song name from the most popular songs.
+     */
+    public String getRecommendation() {
+        int now = now();
+        List<String> songs = new ArrayList<String>(TOP_SONGS);
+        double[] totals = new double[TOP_SONGS + 1];
+        double total = 0;
+        for (Map.Entry<String, Score> entry : topSongs.entrySet()) {
+            if (songs.size() == totals.length) {
+                //a song joined while we were looking.
+                break;
+            }
+            total += decay(entry.getValue(), now);
+            songs.add(entry.getKey());
+            totals[songs.size() - 1] = total;
+        }
+
+        if (songs.size() == 0) {
+            return "ERROR:No recommendation provided.";
+        }
+
+        double pick = ThreadLocalRandom.current().nextDouble() * total;
+        for (int i = 0; i < songs.size(); i++) {
+            if (pick < totals[i]) {
+                return songs.get(i);
+            }
+        }
+        return songs.get(songs.size() - 1);
+    }
+
+    /**
+     * Adds a play to one counter of the sketch, decaying what was there to the current time first.
+     *
+     * @param index the counter to add to.
+     * @param now the current time, from {@link #now()}.
+     * @return the counter's new score.
+     */
+    private double addPlay(int index, int now) {
+        while (true) {
+            Score current = sketch.get(index);
+            //another play may have stamped the counter a moment later than us, in which case we count from its time.
+            int at = Math.max(now, current.time);
+            double score = decay(current, at) + 1;
+            if (sketch.compareAndSet(index, current, new Score(score, at))) {
+                return score;
+            }
+        }
+    }
+
+    private String findLowest(int now) {
+        String lowest = null;
+        double lowestScore = Double.MAX_VALUE;
+        for (Map.Entry<String, Score> entry : topSongs.entrySet()) {
+            double score = decay(entry.getValue(), now);
+            if (score < lowestScore) {
+                lowest = entry.getKey();
+                lowestScore = score;
+            }
+        }
+        return lowest;
+    }
+
+    /**
+     * Works out what a score is worth at a given time.
+     *
+     * @param score the score and the time it was last played.
+     * @param now the time to decay the score to.
+     * @return the score at that time.
+     */
+    private double decay(Score score, int now) {
+        int elapsed = now - score.time;
+        return elapsed <= 0 ? score.value : score.value * Math.exp(-decayPerSecond * elapsed);
+    }
+
+    /**
+     * Method to get the current time in whole seconds since the tracker was created.
+     *
+     * @return the current time.
+     */
+    private int now() {
+        return (int) ((System.nanoTime() - startTime) / 1000000000L);
+    }
+
+    private static long spread(int hash) {
+        //a 64 bit finalizer, so that titles with similar hash codes still land far apart.
+        long mixed = hash * 0x9E3779B97F4A7C15L;
+        mixed ^= mixed >>> 32;
+        mixed *= 0xC2B2AE3D27D4EB4FL;
+        return mixed ^ (mixed >>> 29);
+    }
+
+    private static long readHalfLifeSeconds() {
+        String seconds = System.getProperty("popularity.halfLife");
+        if (seconds == null) {
+            return DEFAULT_HALF_LIFE_SECONDS;
+        }
+
+        try {
+            long parsed = Long.parseLong(seconds);
+            if (parsed > 0) {
+                return parsed;
+            }
+        }
+        catch (NumberFormatException nfe) {
+            //fall through to the default below.
+        }
+
+        System.out.println("Invalid popularity.halfLife provided - resorting to " + DEFAULT_HALF_LIFE_SECONDS + ".");
+        return DEFAULT_HALF_LIFE_SECONDS;
+    }
+
+    /**
+     * A score and the time it was worked out at, kept together so that both can be swapped in one go.
+     */
+    private static class Score {
+        private static final Score NONE = new Score(0, 0);
+
+        private final double value;
+        private final int time;
+
+        private Score(double value, int time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
+}
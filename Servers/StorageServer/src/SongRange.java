@@ -0,0 +1,71 @@
+/**
+ * The part of a song asked for by a SONG:[song]:[offset]:[length] message, so that a transfer which was cut off can
+ * carry on from where it stopped instead of starting again.
+ *
+ * @author Bradley Davis
+ */
+public class SongRange {
+    private final long offset;
+    private final long length;
+
+    /**
+     * Constructor which sets all internal class variables.
+     *
+     * @param offset the number of bytes into the song to start from.
+     * @param length the number of bytes to send.
+     */
+    public SongRange(long offset, long length) {
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Checks whether a SONG message asked for part of a song rather than all of it.
+     *
+     * @param arguments the message split on ":".
+     * @return true if an offset was given.
+     */
+    public static boolean isRanged(String[] arguments) {
+        return arguments.length > 2;
+    }
+
+    /**
+     * Reads the range out of a SONG:[song]:[offset]:[length] message. The length may be left off, or be 0, to ask for
+     * everything from the offset to the end of the song. A length running past the end of the song is cut short.
+     *
+     * @param arguments the message split on ":".
+     * @param songSize the size of the song in bytes.
+     * @return the range asked for, or null if the range was not valid for this song.
+     */
+    public static SongRange parse(String[] arguments, long songSize) {
+        long offset;
+        long length = 0;
+        try {
+            offset = Long.parseLong(arguments[2]);
+            if (arguments.length > 3) {
+                length = Long.parseLong(arguments[3]);
+            }
+        }
+        catch (NumberFormatException nfe) {
+            return null;
+        }
+
+        if (offset < 0 || offset > songSize || length < 0) {
+            return null;
+        }
+
+        if (length == 0 || length > songSize - offset) {
+            length = songSize - offset;
+        }
+
+        return new SongRange(offset, length);
+    }
+}
@@ -0,0 +1,289 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe index for finding songs whose titles contain a search term, without checking every title.
+ *
+ * Every run of {@link #GRAM_LENGTH} characters in a title is indexed against the title's id. A search looks up the
+ * runs in the search term, intersects their lists of ids starting from the shortest, and only checks and ranks the
+ * titles which are left. Songs are added and removed one at a time so the index never needs rebuilding from scratch,
+ * apart from tidying up once a lot of songs have been removed.
+ *
+ * @author Bradley Davis
+ */
+public class SongSearchIndex {
+    private static final int GRAM_LENGTH = 3;
+    private static final int MIN_COMPACT_SIZE = 1024;
+    private static final int MAX_UNCHECKED = 64;
+
+    private final Map<Long, IdList> postings;
+    private final Map<String, Integer> ids;
+    private String[] titles;
+    private int nextId;
+    private int removed;
+    private final ReadWriteLock lock;
+
+    public SongSearchIndex() {
+        postings = new HashMap<Long, IdList>();
+        ids = new HashMap<String, Integer>();
+        titles = new String[16];
+        nextId = 0;
+        removed = 0;
+        lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Adds a song to the index.
+     *
+     * @param song the title of the song.
+     */
+    public void add(String song) {
+        lock.writeLock().lock();
+        try {
+            if (!ids.containsKey(song)) {
+                index(song);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a song from the index. Its id is left in the lists until they are next tidied, but is skipped.
+     *
+     * @param song the title of the song.
+     */
+    public void remove(String song) {
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.remove(song);
+            if (id == null) {
+                return;
+            }
+            titles[id] = null;
+            removed++;
+
+            if (removed > MIN_COMPACT_SIZE && removed > ids.size()) {
+                compact();
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Brings the index in line with a full list of songs, only adding and removing the songs which have changed.
+     *
+     * @param current every song which should be in the index.
+     */
+    public void sync(Collection<String> current) {
+        Set<String> wanted = new HashSet<String>(current);
+        List<String> toRemove = new ArrayList<String>();
+
+        lock.readLock().lock();
+        try {
+            if (ids.keySet().equals(wanted)) {
+                return;
+            }
+            for (String song : ids.keySet()) {
+                if (!wanted.contains(song)) {
+                    toRemove.add(song);
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        for (String song : toRemove) {
+            remove(song);
+        }
+        for (String song : wanted) {
+            add(song);
+        }
+    }
+
+    /**
+     * Finds every song whose title contains the search term, best matches first.
+     *
+     * An exact title comes first, then titles starting with the term, then titles where the term starts a word, then
+     * everything else by how early the term appears. Ties go to the shorter title.
+     *
+     * @param term the term to search for.
+     * @return the titles which matched, best first.
+     */
+    public List<String> search(String term) {
+        lock.readLock().lock();
+        try {
+            int[] candidates = candidates(term);
+            int candidateCount = candidates == null ? nextId : candidates.length;
+
+            //each match is packed into a long of rank, then length, then position in the list so they sort quickly.
+            long[] matches = new long[Math.min(candidateCount, 1024)];
+            int matchCount = 0;
+            for (int i = 0; i < candidateCount; i++) {
+                int id = candidates == null ? i : candidates[i];
+                String song = titles[id];
+                if (song == null) {
+                    continue;
+                }
+
+                int position = song.indexOf(term);
+                if (position < 0) {
+                    continue;
+                }
+
+                if (matchCount == matches.length) {
+                    matches = Arrays.copyOf(matches, matches.length * 2);
+                }
+                long rank = Math.min(rank(song, term, position), 0xFFFFF);
+                long length = Math.min(song.length(), 0xFFFFF);
+                matches[matchCount++] = (rank << 43) | (length << 23) | id;
+            }
+
+            Arrays.sort(matches, 0, matchCount);
+
+            List<String> found = new ArrayList<String>(matchCount);
+            for (int i = 0; i < matchCount; i++) {
+                found.add(titles[(int) (matches[i] & 0x7FFFFF)]);
+            }
+            return found;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Works out which titles could contain the term by intersecting the lists for each run of characters in it.
+     *
+     * @param term the term to search for.
+     * @return the ids which could match, or null if the term is too short to use the index and every title must be checked.
+     */
+    private int[] candidates(String term) {
+        if (term.length() < GRAM_LENGTH) {
+            return null;
+        }
+
+        Set<Long> grams = grams(term);
+        IdList[] lists = new IdList[grams.size()];
+        int count = 0;
+        for (Long gram : grams) {
+            IdList list = postings.get(gram);
+            if (list == null) {
+                return new int[0];
+            }
+            lists[count++] = list;
+        }
+
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+
+        int[] result = Arrays.copyOf(lists[0].ids, lists[0].size);
+        int resultSize = result.length;
+        //once only a few candidates are left it is cheaper to check their titles than keep intersecting.
+        for (int i = 1; i < lists.length && resultSize > MAX_UNCHECKED; i++) {
+            IdList list = lists[i];
+            int kept = 0;
+            if (list.size > resultSize * 8) {
+                for (int j = 0; j < resultSize; j++) {
+                    if (Arrays.binarySearch(list.ids, 0, list.size, result[j]) >= 0) {
+                        result[kept++] = result[j];
+                    }
+                }
+            }
+            else {
+                int k = 0;
+                for (int j = 0; j < resultSize && k < list.size; j++) {
+                    while (k < list.size && list.ids[k] < result[j]) {
+                        k++;
+                    }
+                    if (k < list.size && list.ids[k] == result[j]) {
+                        result[kept++] = result[j];
+                    }
+                }
+            }
+            resultSize = kept;
+        }
+
+        return Arrays.copyOf(result, resultSize);
+    }
+
+    /**
+     * Gives a match a score where lower is better.
+     */
+    private static int rank(String song, String term, int position) {
+        if (position == 0) {
+            return song.length() == term.length() ? 0 : 1;
+        }
+        if (!Character.isLetterOrDigit(song.charAt(position - 1))) {
+            return 2;
+        }
+        return 3 + position;
+    }
+
+    /**
+     * Gives a song the next id and adds it to the list for every run of characters in its title. As ids only ever go
+     * up, every list stays sorted.
+     */
+    private void index(String song) {
+        int id = nextId++;
+        if (id == titles.length) {
+            titles = Arrays.copyOf(titles, titles.length * 2);
+        }
+        titles[id] = song;
+        ids.put(song, id);
+
+        for (Long gram : grams(song)) {
+            postings.computeIfAbsent(gram, g -> new IdList()).add(id);
+        }
+    }
+
+    /**
+     * Rebuilds the index from the songs still in it, dropping the ids of songs which have been removed.
+     */
+    private void compact() {
+        String[] songs = ids.keySet().toArray(new String[0]);
+        postings.clear();
+        ids.clear();
+        titles = new String[Math.max(16, songs.length)];
+        nextId = 0;
+        removed = 0;
+
+        for (String song : songs) {
+            index(song);
+        }
+    }
+
+    private static Set<Long> grams(String text) {
+        Set<Long> grams = new HashSet<Long>();
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            grams.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2));
+        }
+        return grams;
+    }
+
+    /**
+     * A growable, sorted list of song ids.
+     */
+    private static class IdList {
+        private int[] ids = new int[4];
+        private int size = 0;
+
+        private void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 
 /**
  * This server type will be used as bulk storage for the system
@@ -10,6 +12,7 @@ import java.net.Socket;
 public class StorageServer {
     private int portNumber;
     private ServerConnectionDetails communicationServerDetails;
+    private ConnectionExecutor connectionExecutor;
 
     /**
      * Constructor to create the class with all internal variables set up.
@@ -18,6 +21,7 @@ public class StorageServer {
      */
     public StorageServer(int portNumber) {
         this.portNumber = portNumber;
+        this.connectionExecutor = new ConnectionExecutor("StorageServer");
     }
 
     public boolean start() {
@@ -65,6 +69,9 @@ public class StorageServer {
             LoginDetailsList loginDetailsList = LoginDetailsList.getInstance();
             loginDetailsList.loadFromFile(loginStorage);
 
+            //index the music bank once here so that requests do not each need to list it.
+            SongCatalog.getInstance().load(musicStorage);
+
             //contact the communication server to tell it that we exist
             boolean communicationServerContacted = contactCommunicationServer();
 
@@ -72,17 +79,21 @@ public class StorageServer {
                 return false;
             }
 
-            //create server socket for client communication
-            ServerSocket serverSocket = new ServerSocket(portNumber);
+            //create server socket for client communication. This is opened through a channel so that accepted sockets
+            //have channels too, which lets songs be sent straight from the file to the socket.
+            ServerSocket serverSocket = ServerSocketChannel.open().socket();
+            serverSocket.bind(new InetSocketAddress(portNumber));
 
             while (isRunning) {
                 System.out.println("Awaiting connection requests...");
 
                 Socket socket = serverSocket.accept();
 
-                ConnectionHandler connectionHandler = new ConnectionHandler(socket, musicStorage, loginStorage, communicationServerDetails);
-                Thread handler = new Thread(connectionHandler);
-                handler.start();
+                ConnectionHandler connectionHandler = new ConnectionHandler(socket, musicStorage, communicationServerDetails);
+                if (!connectionExecutor.execute(connectionHandler)) {
+                    System.out.println("Too many connections - turning away " + socket.getInetAddress().getHostAddress() + ".");
+                    socket.close();
+                }
             }
         }
         catch (IOException e) {
@@ -109,29 +120,22 @@ public class StorageServer {
             connectionState = ConnectionState.CONNECTED;
 
             //send necessary commands to communication server to tell it that we exist.
-            byte[] buffer = new byte[100];
-            int messageSize = 0;
             String messageReceived = null;
 
-            communicationServerOutput.write(MessageConverter.stringToByte("SERVER"));
-            communicationServerOutput.flush();
+            MessageConverter.writeMessage(communicationServerOutput, "SERVER");
 
-            communicationServerOutput.write(MessageConverter.stringToByte("SERVERTYPE:STORAGE:"+portNumber));
-            communicationServerOutput.flush();
+            MessageConverter.writeMessage(communicationServerOutput, "SERVERTYPE:STORAGE:"+portNumber);
 
-            messageSize = communicationServerInput.read(buffer);
-            messageReceived = MessageConverter.byteToString(buffer, messageSize);
+            messageReceived = MessageConverter.readMessage(communicationServerInput);
 
             if (!messageReceived.equals("TYPESTORED")) {
                 System.out.println("Communication server was unable to recognise this server - shutting down.");
                 return false;
             }
 
-            communicationServerOutput.write(MessageConverter.stringToByte("DISCONNECT"));
-            communicationServerOutput.flush();
+            MessageConverter.writeMessage(communicationServerOutput, "DISCONNECT");
 
-            messageSize = communicationServerInput.read(buffer);
-            messageReceived = MessageConverter.byteToString(buffer, messageSize);
+            messageReceived = MessageConverter.readMessage(communicationServerInput);
 
             if (!messageReceived.equals("DISCONNECT")) {
                 System.out.println("Unable to disconnect properly from communication server - shutting down.");